@@ -0,0 +1,39 @@
+package timofeeva.pipeline;
+
+/**
+ * Порция данных, передаваемая за один вызов execute(): несколько кадров
+ * или признак конца потока.
+ */
+public final class Batch {
+    public static final Batch END_OF_STREAM = new Batch(new Frame[0], true);
+    private final Frame[] frames;
+    private final boolean endOfStream;
+
+    private Batch(Frame[] frames, boolean endOfStream) {
+        this.frames = frames;
+        this.endOfStream = endOfStream;
+    }
+
+    public static Batch of(Frame... frames) {
+        return new Batch(frames, false);
+    }
+
+    public Frame[] getFrames() {
+        return frames;
+    }
+
+    public boolean isEndOfStream() {
+        return endOfStream;
+    }
+
+    /**
+     * @return суммарная длина кадров в элементах
+     */
+    public long getLength() {
+        long length = 0;
+        for (Frame frame : frames) {
+            length += frame.getLength();
+        }
+        return length;
+    }
+}
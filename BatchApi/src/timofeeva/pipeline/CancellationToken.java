@@ -0,0 +1,68 @@
+package timofeeva.pipeline;
+
+import ru.spbstu.pipeline.RC;
+
+/**
+ * Признак остановки конвейера. Менеджер привязывает токен к потоку, в котором работает конвейер,
+ * компоненты проверяют его между порциями через current() и при остановке возвращают STOPPED.
+ */
+public final class CancellationToken {
+    // RC расширить нельзя, причину остановки менеджер берет из токена
+    public static final RC STOPPED = RC.CODE_FAILED_TO_READ;
+    private static final CancellationToken NONE = new CancellationToken();
+    private static final ThreadLocal<CancellationToken> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    /**
+     * Причина остановки конвейера
+     */
+    public enum StopReason {
+        CANCELLED,
+        PIPELINE_TIMEOUT,
+        STAGE_TIMEOUT
+    }
+
+    private volatile StopReason reason;
+
+    /**
+     * @return токен конвейера, работающего в текущем потоке; если его нет - токен, который не отменяется
+     */
+    public static CancellationToken current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param token - токен конвейера, работающего в текущем потоке, null - отвязать токен
+     */
+    public static void bind(CancellationToken token) {
+        if (token == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(token);
+        }
+    }
+
+    /**
+     * Повторные вызовы причину первой остановки не меняют
+     *
+     * @return true, если остановка произошла этим вызовом
+     */
+    public synchronized boolean cancel(StopReason reason) {
+        if (this == NONE || this.reason != null) {
+            return false;
+        }
+        this.reason = reason;
+
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * @return причина остановки или null, если конвейер не останавливали
+     */
+    public StopReason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,29 @@
+package timofeeva.pipeline;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Предупреждения о конкретной порции данных. Поля порции передаются параметрами записи
+ * и форматируются, только если уровень включен; шаблон сообщения у всех порций один,
+ * поэтому фильтр повторов менеджера считает их одним сообщением.
+ */
+public final class ChunkLog {
+    private ChunkLog() {
+    }
+
+    public static void warn(Logger logger, String message, String stage, long chunk) {
+        if (logger != null && logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, message + ": stage={0}, chunk={1}", new Object[]{stage, chunk});
+        }
+    }
+
+    /**
+     * @param offset - смещение порции в потоке в байтах
+     */
+    public static void warn(Logger logger, String message, String stage, long chunk, long offset) {
+        if (logger != null && logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, message + ": stage={0}, chunk={1}, offset={2}", new Object[]{stage, chunk, offset});
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package timofeeva.pipeline;
+
+import jdk.jfr.*;
+
+/**
+ * Событие JFR: чтение порции входного файла reader'ом
+ */
+@Name("timofeeva.pipeline.ChunkRead")
+@Label("Chunk Read")
+@Category({"Pipeline"})
+@Enabled(false)
+@StackTrace(false)
+public final class ChunkReadEvent extends Event {
+    @Label("Stage")
+    String stage;
+    @Label("Chunk")
+    long chunk;
+    @Label("Input Offset")
+    @DataAmount
+    long offset;
+    @Label("Requested")
+    @DataAmount
+    int requested;
+    @Label("Bytes Read")
+    @DataAmount
+    int bytes;
+
+    /**
+     * Завершает замер и записывает событие, если оно включено и превысило порог
+     *
+     * @param offset - смещение порции во входном файле
+     * @param bytes  - кол-во считанных байт, -1 в конце файла
+     */
+    public void finish(String stage, long chunk, long offset, int requested, int bytes) {
+        end();
+        if (shouldCommit()) {
+            this.stage = stage;
+            this.chunk = chunk;
+            this.offset = offset;
+            this.requested = requested;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
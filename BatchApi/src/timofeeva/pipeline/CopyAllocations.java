@@ -0,0 +1,54 @@
+package timofeeva.pipeline;
+
+/**
+ * Учет массивов, которые компоненты и переходники выделяют под копии и преобразования порций
+ * (перевод между TYPE, отбрасывание нулей, копии для старых consumer'ов, буфер передачи Executor'а).
+ * В бюджет памяти они не входят, менеджер выводит их в лог отдельно. Как и CancellationToken,
+ * счетчик привязывается к потоку конвейера; без привязанного счетчика record() ничего не делает.
+ */
+public final class CopyAllocations {
+    private static final ThreadLocal<CopyAllocations> CURRENT = new ThreadLocal<>();
+
+    // меняются только потоком конвейера
+    private long count;
+    private long bytes;
+    private long largest;
+
+    /**
+     * @param allocations - счетчик конвейера, работающего в текущем потоке, null - отвязать счетчик
+     */
+    public static void bind(CopyAllocations allocations) {
+        if (allocations == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(allocations);
+        }
+    }
+
+    /**
+     * @param bytes - размер выделенного массива в байтах
+     */
+    public static void record(long bytes) {
+        CopyAllocations allocations = CURRENT.get();
+        if (allocations != null) {
+            allocations.count++;
+            allocations.bytes += bytes;
+            allocations.largest = Math.max(allocations.largest, bytes);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return размер наибольшего массива - примерно столько копии добавляют к пику бюджета на компоненту
+     */
+    public long getLargest() {
+        return largest;
+    }
+}
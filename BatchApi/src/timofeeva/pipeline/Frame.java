@@ -0,0 +1,60 @@
+package timofeeva.pipeline;
+
+/**
+ * Кадр порции данных: участок массива (byte[], short[] или char[] в зависимости от TYPE)
+ * с явными смещением и длиной. Массив принадлежит producer'у и действителен только
+ * до возврата из execute() consumer'а, изменять его нельзя.
+ */
+public final class Frame {
+    private final Object data;
+    private final int offset;
+    private final int length;
+    private final long sequence;
+    private final int paddingBytes;
+
+    /**
+     * @param sequence - порядковый номер кадра у producer'а, -1 если producer их не ведет
+     */
+    public Frame(Object data, int offset, int length, long sequence) {
+        this(data, offset, length, sequence, 0);
+    }
+
+    /**
+     * @param paddingBytes - сколько байт последнего элемента дописаны заполнителем, а не взяты из данных
+     *                     (нечетный хвост байт в SHORT дополняется нулем)
+     */
+    public Frame(Object data, int offset, int length, long sequence, int paddingBytes) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.sequence = sequence;
+        this.paddingBytes = paddingBytes;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getPaddingBytes() {
+        return paddingBytes;
+    }
+
+    /**
+     * @return кадр над частью этого кадра, данные не копируются
+     */
+    public Frame slice(int from, int to) {
+        return new Frame(data, offset + from, to - from, sequence, to == length ? paddingBytes : 0);
+    }
+}
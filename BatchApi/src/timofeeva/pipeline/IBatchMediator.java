@@ -0,0 +1,14 @@
+package timofeeva.pipeline;
+
+import ru.spbstu.pipeline.IMediator;
+
+/**
+ * Mediator, отдающий порцию кадрами с явными длинами вместо дополненного нулями массива.
+ * getData() остается для компонент, не знающих об этом интерфейсе.
+ */
+public interface IBatchMediator extends IMediator {
+    /**
+     * @return текущая порция, Batch.END_OF_STREAM после конца потока
+     */
+    Batch getBatch();
+}
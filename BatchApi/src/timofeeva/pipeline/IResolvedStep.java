@@ -0,0 +1,40 @@
+package timofeeva.pipeline;
+
+import ru.spbstu.pipeline.IPipelineStep;
+import ru.spbstu.pipeline.IProducer;
+import ru.spbstu.pipeline.RC;
+import ru.spbstu.pipeline.TYPE;
+
+import java.util.Map;
+
+/**
+ * Компонента, которую менеджер может собрать по скомпилированному описанию конвейера:
+ * разобранные в setConfig параметры и согласованный с producer'ом тип передаются ей напрямую,
+ * без чтения конфига и повторного согласования типов.
+ */
+public interface IResolvedStep extends IPipelineStep {
+    /**
+     * @return параметры конфига, разобранные и проверенные в setConfig
+     */
+    Map<String, String> getResolvedConfig();
+
+    /**
+     * @return размер буфера компоненты в байтах, 0 - если буфера нет
+     */
+    int getBufferSize();
+
+    /**
+     * @return тип, согласованный в setProducer, или null, если компонента не принимает данные
+     */
+    TYPE getProducerType();
+
+    /**
+     * @param params - результат getResolvedConfig() такой же компоненты
+     */
+    RC setResolvedConfig(Map<String, String> params);
+
+    /**
+     * @param type - результат getProducerType() такой же компоненты, связанной с таким же producer'ом
+     */
+    RC setProducer(IProducer producer, TYPE type);
+}
@@ -0,0 +1,41 @@
+package timofeeva.pipeline;
+
+import jdk.jfr.*;
+import ru.spbstu.pipeline.TYPE;
+
+/**
+ * Событие JFR: преобразование или копирование данных mediator'ом
+ * (перевод между TYPE, отбрасывание нулей у чужих компонент, копия для старых consumer'ов)
+ */
+@Name("timofeeva.pipeline.MediatorConversion")
+@Label("Mediator Conversion")
+@Category({"Pipeline"})
+@Enabled(false)
+@StackTrace(false)
+public final class MediatorConversionEvent extends Event {
+    @Label("Stage")
+    String stage;
+    @Label("From Type")
+    String fromType;
+    @Label("To Type")
+    String toType;
+    @Label("Input Elements")
+    int inputLength;
+    @Label("Output Elements")
+    int outputLength;
+
+    /**
+     * Завершает замер и записывает событие, если оно включено и превысило порог
+     */
+    public void finish(String stage, TYPE fromType, TYPE toType, int inputLength, int outputLength) {
+        end();
+        if (shouldCommit()) {
+            this.stage = stage;
+            this.fromType = fromType.name();
+            this.toType = toType.name();
+            this.inputLength = inputLength;
+            this.outputLength = outputLength;
+            commit();
+        }
+    }
+}
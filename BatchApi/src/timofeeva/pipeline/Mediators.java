@@ -0,0 +1,136 @@
+package timofeeva.pipeline;
+
+import ru.spbstu.pipeline.IMediator;
+import ru.spbstu.pipeline.TYPE;
+
+import java.lang.reflect.Array;
+
+/**
+ * Переходники между IBatchMediator и mediator'ами старых компонент.
+ */
+public final class Mediators {
+    private Mediators() {
+    }
+
+    /**
+     * Старые компоненты отдают массив, дополненный нулями до размера буфера, поэтому
+     * нулевые элементы при переходе к кадрам отбрасываются, как это делали старые consumer'ы.
+     *
+     * @return сам mediator, если он уже отдает кадры, иначе переходник над ним
+     */
+    public static IBatchMediator asBatchMediator(IMediator mediator, TYPE type) {
+        if (mediator instanceof IBatchMediator) {
+            return (IBatchMediator) mediator;
+        }
+        return new IBatchMediator() {
+            private long sequence;
+
+            @Override
+            public Batch getBatch() {
+                Object data = mediator.getData();
+                if (data == null) {
+                    return Batch.END_OF_STREAM;
+                }
+                MediatorConversionEvent event = new MediatorConversionEvent();
+                event.begin();
+                Frame frame = stripZeros(data, type, sequence++);
+                event.finish(Mediators.class.getSimpleName(), type, type, Array.getLength(data), frame.getLength());
+                return Batch.of(frame);
+            }
+
+            @Override
+            public Object getData() {
+                return mediator.getData();
+            }
+        };
+    }
+
+    /**
+     * @return массив с данными кадров подряд для старых consumer'ов, null для конца потока
+     */
+    public static Object toArray(Batch batch, TYPE type) {
+        if (batch.isEndOfStream()) {
+            return null;
+        }
+        MediatorConversionEvent event = new MediatorConversionEvent();
+        event.begin();
+        int length = (int) batch.getLength();
+        Object array = switch (type) {
+            case BYTE -> new byte[length];
+            case SHORT -> new short[length];
+            case CHAR -> new char[length];
+        };
+        CopyAllocations.record((long) length * (type == TYPE.BYTE ? Byte.BYTES : Short.BYTES));
+        int position = 0;
+        for (Frame frame : batch.getFrames()) {
+            System.arraycopy(frame.getData(), frame.getOffset(), array, position, frame.getLength());
+            position += frame.getLength();
+        }
+        event.finish(Mediators.class.getSimpleName(), type, type, length, length);
+        return array;
+    }
+
+    // массив producer'а не изменяем: новый массив выделяется, только если в данных есть нули,
+    // до первого нуля данные копируются одним arraycopy
+    private static Frame stripZeros(Object data, TYPE type, long sequence) {
+        switch (type) {
+            case BYTE: {
+                byte[] bytes = (byte[]) data;
+                int length = 0;
+                while (length < bytes.length && bytes[length] != 0) {
+                    length++;
+                }
+                if (length == bytes.length) {
+                    return new Frame(bytes, 0, length, sequence);
+                }
+                byte[] result = new byte[bytes.length - 1];
+                CopyAllocations.record(result.length);
+                System.arraycopy(bytes, 0, result, 0, length);
+                for (int i = length + 1; i < bytes.length; i++) {
+                    if (bytes[i] != 0) {
+                        result[length++] = bytes[i];
+                    }
+                }
+                return new Frame(result, 0, length, sequence);
+            }
+            case SHORT: {
+                short[] shorts = (short[]) data;
+                int length = 0;
+                while (length < shorts.length && shorts[length] != 0) {
+                    length++;
+                }
+                if (length == shorts.length) {
+                    return new Frame(shorts, 0, length, sequence);
+                }
+                short[] result = new short[shorts.length - 1];
+                CopyAllocations.record(result.length * (long) Short.BYTES);
+                System.arraycopy(shorts, 0, result, 0, length);
+                for (int i = length + 1; i < shorts.length; i++) {
+                    if (shorts[i] != 0) {
+                        result[length++] = shorts[i];
+                    }
+                }
+                return new Frame(result, 0, length, sequence);
+            }
+            default: {
+                char[] chars = (char[]) data;
+                int length = 0;
+                while (length < chars.length && chars[length] != 0) {
+                    length++;
+                }
+                if (length == chars.length) {
+                    return new Frame(chars, 0, length, sequence);
+                }
+                char[] result = new char[chars.length - 1];
+                CopyAllocations.record(result.length * (long) Character.BYTES);
+                System.arraycopy(chars, 0, result, 0, length);
+                for (int i = length + 1; i < chars.length; i++) {
+                    if (chars[i] != 0) {
+                        result[length++] = chars[i];
+                    }
+                }
+                return new Frame(result, 0, length, sequence);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package timofeeva.pipeline;
+
+import jdk.jfr.*;
+import ru.spbstu.pipeline.TYPE;
+
+/**
+ * Событие JFR: обработка порции компонентой. Компоненты вызывают следующие вложенно,
+ * поэтому длительность включает обработку порции дальше по конвейеру.
+ */
+@Name("timofeeva.pipeline.StageExecute")
+@Label("Stage Execute")
+@Category({"Pipeline"})
+@Enabled(false)
+@StackTrace(false)
+public final class StageExecuteEvent extends Event {
+    @Label("Stage")
+    String stage;
+    @Label("Chunk")
+    long chunk;
+    @Label("Type")
+    String type;
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Завершает замер и записывает событие, если оно включено и превысило порог
+     *
+     * @param type  - тип данных, согласованный с producer'ом
+     * @param bytes - объем полученной порции, -1 если неизвестен
+     */
+    public void finish(String stage, long chunk, TYPE type, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.stage = stage;
+            this.chunk = chunk;
+            this.type = type == null ? null : type.name();
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package timofeeva.pipeline;
+
+import jdk.jfr.*;
+
+/**
+ * Событие JFR: вывод накопленных writer'ом данных в выходной поток
+ */
+@Name("timofeeva.pipeline.WriterFlush")
+@Label("Writer Flush")
+@Category({"Pipeline"})
+@Enabled(false)
+@StackTrace(false)
+public final class WriterFlushEvent extends Event {
+    @Label("Stage")
+    String stage;
+    @Label("Chunk")
+    long chunk;
+    @Label("Output Offset")
+    @DataAmount
+    long offset;
+    @Label("Bytes")
+    @DataAmount
+    int bytes;
+
+    /**
+     * Завершает замер и записывает событие, если оно включено и превысило порог
+     *
+     * @param offset - смещение данных в выходном файле
+     */
+    public void finish(String stage, long chunk, long offset, int bytes) {
+        end();
+        if (shouldCommit()) {
+            this.stage = stage;
+            this.chunk = chunk;
+            this.offset = offset;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package timofeeva.pipeline;
+
+import ru.spbstu.pipeline.IMediator;
+import ru.spbstu.pipeline.TYPE;
+
+import java.util.Arrays;
+
+/**
+ * Проверка переходников Mediators и дополнения кадров. При ошибке завершается с кодом 1.
+ */
+public class MediatorsTest {
+    public static void main(String[] args) {
+        boolean failed = false;
+
+        byte[] noZeros = {1, 2, 3};
+        Frame frame = batchOf(noZeros, TYPE.BYTE).getFrames()[0];
+        failed |= !check("data without zeros is not copied", frame.getData() == noZeros && frame.getLength() == 3);
+
+        frame = batchOf(new byte[]{1, 0, 2, 0, 0, 3}, TYPE.BYTE).getFrames()[0];
+        failed |= !check("zero bytes are stripped", Arrays.equals(
+                Arrays.copyOfRange((byte[]) frame.getData(), 0, frame.getLength()), new byte[]{1, 2, 3}));
+
+        frame = batchOf(new short[]{0, 5, 0, 6}, TYPE.SHORT).getFrames()[0];
+        failed |= !check("zero shorts are stripped", Arrays.equals(
+                Arrays.copyOfRange((short[]) frame.getData(), 0, frame.getLength()), new short[]{5, 6}));
+
+        frame = batchOf(new char[]{'a', 0, 'b'}, TYPE.CHAR).getFrames()[0];
+        failed |= !check("zero chars are stripped", new String((char[]) frame.getData(), 0, frame.getLength()).equals("ab"));
+
+        Frame padded = new Frame(new short[]{1, 2, 3}, 0, 3, 0, 1);
+        failed |= !check("padding stays with the last slice",
+                padded.slice(0, 2).getPaddingBytes() == 0 && padded.slice(2, 3).getPaddingBytes() == 1);
+
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static Batch batchOf(Object data, TYPE type) {
+        IMediator legacy = () -> data;
+        return Mediators.asBatchMediator(legacy, type).getBatch();
+    }
+
+    private static boolean check(String name, boolean ok) {
+        System.out.println((ok ? "ok   " : "FAIL ") + name);
+        return ok;
+    }
+}
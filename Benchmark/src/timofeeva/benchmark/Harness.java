@@ -0,0 +1,288 @@
+package timofeeva.benchmark;
+
+import ru.spbstu.pipeline.RC;
+import timofeeva.manager.Manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Стенд сквозного прогона: генерирует вход, прогоняет через Manager каждый конфиг
+ * из config/N/config_src.cfg, сверяет вывод с эталонной моделью (ветки с чужими компонентами - с эталонным
+ * выводом, снятым один раз для каждого входа) и печатает пропускную способность, задержки порций, время GC и пиковый RSS.
+ * Запускается из каталога Manager, т.к. пути в конфигах относительные:
+ * <pre>
+ * Harness [--size 8m] [--distribution RANDOM_BINARY] [--seed 1] [--zero-density 0.1] [--configs 1,2,3,4,5] [--runs 3]
+ *         [--output-mode BUFFERED|FSYNC|DIRECT] [--golden-dir build/golden] [--update-golden false]
+ * </pre>
+ */
+public class Harness {
+    private static final String CONFIG_FILE_PATTERN = "config/%s/config_src.cfg";
+    private static final String BRANCH_DELIMITER = PipelineConfig.BRANCH_DELIMITER;
+    private static final String COMPONENT_DELIMITER = PipelineConfig.COMPONENT_DELIMITER;
+    private static final Logger logger = Logger.getLogger("Benchmark");
+
+    private final Map<String, String> options = new HashMap<>();
+    private final Path workDir;
+    // пустой конфиг замера задержки
+    private String probeConfigPath;
+    // эталонные выводы конфигов для текущего входа
+    private Path goldenDir;
+
+    // результаты прогона одного конфига
+    private static class Result {
+        private double megabytesPerSecond;
+        private long[] chunkLatencies;
+        private long gcMillis;
+        private long peakRssKb;
+        private String check;
+    }
+
+    private Harness(String[] args) throws IOException {
+        options.put("size", "8m");
+        options.put("distribution", WorkloadGenerator.Distribution.RANDOM_BINARY.name());
+        options.put("seed", "1");
+        options.put("zero-density", "0.1");
+        options.put("configs", "1,2,3,4,5");
+        options.put("runs", "3");
+        options.put("output-mode", "");
+        options.put("golden-dir", "build/golden");
+        options.put("update-golden", "false");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        workDir = Files.createTempDirectory("pipeline-bench");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = new Harness(args);
+        boolean failed = harness.run();
+        System.exit(failed ? 1 : 0);
+    }
+
+    private boolean run() throws IOException {
+        long size = parseSize(options.get("size"));
+        WorkloadGenerator.Distribution distribution = WorkloadGenerator.Distribution.valueOf(options.get("distribution"));
+        String inputPath = workDir.resolve("input.bin").toString();
+        probeConfigPath = Files.write(workDir.resolve("probe.cfg"), new byte[0]).toString();
+        new WorkloadGenerator(distribution, Long.parseLong(options.get("seed")),
+                Double.parseDouble(options.get("zero-density"))).generate(inputPath, size);
+        // вход однозначно задается распределением, seed, долей нулей и размером
+        goldenDir = Paths.get(options.get("golden-dir"), String.join("-", distribution.name(),
+                "seed" + options.get("seed"), "zeros" + options.get("zero-density"), String.valueOf(size)));
+        System.out.printf("input: %d bytes, %s%n", size, distribution);
+        System.out.printf("%-8s %10s %12s %12s %8s %12s  %s%n",
+                "config", "MB/s", "p50 us", "p99 us", "GC ms", "peak RSS MB", "check");
+
+        boolean failed = false;
+        for (String config : options.get("configs").split(",")) {
+            Result result = runConfig(config, inputPath, size);
+            if (result == null) {
+                System.out.printf("%-8s failed to run%n", config);
+                failed = true;
+                continue;
+            }
+            System.out.printf("%-8s %10.1f %12.1f %12.1f %8d %12s  %s%n", config, result.megabytesPerSecond,
+                    percentile(result.chunkLatencies, 0.5) / 1000.0, percentile(result.chunkLatencies, 0.99) / 1000.0,
+                    result.gcMillis, result.peakRssKb < 0 ? "n/a" : String.valueOf(result.peakRssKb / 1024),
+                    result.check);
+            failed |= result.check.startsWith("FAIL");
+        }
+
+        return failed;
+    }
+
+    private Result runConfig(String config, String inputPath, long size) throws IOException {
+        Map<String, String> params = PipelineConfig.read(String.format(CONFIG_FILE_PATTERN, config));
+        String[] branchExecutors = params.get("EXECUTOR_NAME").split(BRANCH_DELIMITER);
+        String[] branchExecutorConfigs = params.get("EXECUTOR_CONFIG_PATH").split(BRANCH_DELIMITER);
+        String[] outputPaths = PipelineConfig.redirectOutputs(params, workDir, "output-" + config);
+        for (int i = 0; i < outputPaths.length; i++) {
+            // первым в ветке ставим замер задержки, параметров у него нет
+            branchExecutors[i] = ProbeExecutor.class.getName() + COMPONENT_DELIMITER + branchExecutors[i];
+            branchExecutorConfigs[i] = probeConfigPath + COMPONENT_DELIMITER + branchExecutorConfigs[i];
+        }
+        params.put("INPUT_FILE_PATH", inputPath);
+        params.put("EXECUTOR_NAME", String.join(BRANCH_DELIMITER, branchExecutors));
+        params.put("EXECUTOR_CONFIG_PATH", String.join(BRANCH_DELIMITER, branchExecutorConfigs));
+        params.remove("INCREMENTAL_STATE_PATH");
+        if (!options.get("output-mode").isEmpty()) {
+            params.put("OUTPUT_MODE", options.get("output-mode"));
+        }
+        String configPath = PipelineConfig.write(params, workDir, "config-" + config + ".cfg");
+
+        // прогрев, результаты не учитываются
+        if (runManager(configPath) != RC.CODE_SUCCESS) {
+            return null;
+        }
+        ProbeExecutor.takeChunkLatencies();
+
+        int runs = Integer.parseInt(options.get("runs"));
+        double[] throughputs = new double[runs];
+        long[] latencies = new long[0];
+        resetPeakRss();
+        long gcMillisBefore = gcMillis();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            if (runManager(configPath) != RC.CODE_SUCCESS) {
+                return null;
+            }
+            throughputs[i] = size / 1e6 / ((System.nanoTime() - start) / 1e9);
+            long[] runLatencies = ProbeExecutor.takeChunkLatencies();
+            latencies = Arrays.copyOf(latencies, latencies.length + runLatencies.length);
+            System.arraycopy(runLatencies, 0, latencies, latencies.length - runLatencies.length, runLatencies.length);
+        }
+
+        Result result = new Result();
+        Arrays.sort(throughputs);
+        result.megabytesPerSecond = throughputs[runs / 2];
+        Arrays.sort(latencies);
+        result.chunkLatencies = latencies;
+        result.gcMillis = gcMillis() - gcMillisBefore;
+        result.peakRssKb = peakRssKb();
+        result.check = check(config, params, branchExecutors, inputPath, outputPaths);
+
+        return result;
+    }
+
+    private RC runManager(String configPath) {
+        Manager manager = new Manager();
+        manager.setLogger(logger);
+        RC rc = manager.setConfig(configPath);
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        return manager.start();
+    }
+
+    private String check(String config, Map<String, String> params, String[] branchExecutors, String inputPath,
+                         String[] outputPaths) throws IOException {
+        String[] branchWriters = params.get("WRITER_NAME").split(BRANCH_DELIMITER);
+        String[] goldenOutputs = null;
+        List<String> checks = new ArrayList<>();
+        for (int i = 0; i < outputPaths.length; i++) {
+            List<String> chain = new ArrayList<>();
+            chain.add(params.get("READER_NAME"));
+            chain.addAll(Arrays.asList(branchExecutors[i].split(COMPONENT_DELIMITER)));
+            chain.add(branchWriters[i]);
+            ReferenceModel model = ReferenceModel.forChain(chain);
+            if (model != null) {
+                long mismatch = model.findMismatch(inputPath, outputPaths[i]);
+                checks.add(mismatch < 0 ? "ok" : "FAIL at " + mismatch);
+                continue;
+            }
+
+            // преобразование чужих компонент неизвестно - сверяем с эталонным выводом этого конфига
+            if (goldenOutputs == null) {
+                goldenOutputs = getGoldenOutputs(config, inputPath);
+                if (goldenOutputs == null) {
+                    checks.add("FAIL golden run");
+                    continue;
+                }
+            }
+            long mismatch = ReferenceModel.identity().findMismatch(goldenOutputs[i], outputPaths[i]);
+            checks.add(mismatch < 0 ? "ok golden" : "FAIL at " + mismatch + " golden");
+        }
+        // FAIL выводим первым, чтобы его было видно по началу строки
+        checks.sort(Comparator.comparing((String s) -> !s.startsWith("FAIL")));
+
+        return String.join(BRANCH_DELIMITER, checks);
+    }
+
+    /**
+     * Эталонный вывод снимается обычным прогоном исходного конфига (без замера задержки и OUTPUT_MODE)
+     * один раз для входа и дальше переиспользуется; после изменения компонент или их конфигов
+     * его нужно снять заново с --update-golden true.
+     *
+     * @return пути эталонных выводов веток или null, если эталонный прогон не удался
+     */
+    private String[] getGoldenOutputs(String config, String inputPath) throws IOException {
+        Map<String, String> params = PipelineConfig.read(String.format(CONFIG_FILE_PATTERN, config));
+        Path configDir = goldenDir.resolve(config);
+        String[] outputPaths = PipelineConfig.redirectOutputs(params, configDir, "output");
+        // отметка полного эталона: прерванный прогон не должен стать эталоном
+        Path complete = configDir.resolve("complete");
+        if (Files.exists(complete) && !Boolean.parseBoolean(options.get("update-golden"))) {
+            return outputPaths;
+        }
+
+        Files.createDirectories(configDir);
+        Files.deleteIfExists(complete);
+        params.put("INPUT_FILE_PATH", inputPath);
+        params.remove("INCREMENTAL_STATE_PATH");
+        if (runManager(PipelineConfig.write(params, workDir, "golden-" + config + ".cfg")) != RC.CODE_SUCCESS) {
+            return null;
+        }
+        Files.write(complete, new byte[0]);
+
+        return outputPaths;
+    }
+
+    static long parseSize(String size) {
+        String lower = size.toLowerCase(Locale.ROOT);
+        long multiplier = 1;
+        if (lower.endsWith("k")) {
+            multiplier = 1024;
+        } else if (lower.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        } else if (lower.endsWith("g")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            lower = lower.substring(0, lower.length() - 1);
+        }
+
+        return Long.parseLong(lower) * multiplier;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // сбрасываем пиковый RSS процесса (Linux), чтобы измерить пик конкретного конфига
+    private static void resetPeakRss() {
+        try {
+            Files.writeString(Paths.get("/proc/self/clear_refs"), "5");
+        } catch (IOException | UnsupportedOperationException ignored) {
+        }
+    }
+
+    /**
+     * @return пиковый RSS процесса в КБ или -1, если /proc недоступен
+     */
+    private static long peakRssKb() {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(status.toPath())) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,63 @@
+package timofeeva.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Чтение и запись config_src.cfg: стенды подменяют в конфигах пути входа и выхода
+ * и сохраняют измененную копию во временный каталог.
+ */
+class PipelineConfig {
+    static final String BRANCH_DELIMITER = ";";
+    static final String COMPONENT_DELIMITER = ",";
+    private static final String DELIMITER = "=";
+
+    private PipelineConfig() {
+    }
+
+    static Map<String, String> read(String filePath) throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            String[] pair = line.split(DELIMITER);
+            if (pair.length == 2) {
+                params.put(pair[0], pair[1]);
+            }
+        }
+
+        return params;
+    }
+
+    /**
+     * @return путь к записанному конфигу
+     */
+    static String write(Map<String, String> params, Path directory, String fileName) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            content.append(param.getKey()).append(DELIMITER).append(param.getValue()).append('\n');
+        }
+        Path path = directory.resolve(fileName);
+        Files.writeString(path, content);
+
+        return path.toString();
+    }
+
+    /**
+     * Перенаправляет вывод всех веток во временные файлы
+     *
+     * @return пути выходных файлов веток
+     */
+    static String[] redirectOutputs(Map<String, String> params, Path directory, String prefix) {
+        String[] outputPaths = new String[params.get("WRITER_NAME").split(BRANCH_DELIMITER).length];
+        for (int i = 0; i < outputPaths.length; i++) {
+            outputPaths[i] = directory.resolve(prefix + "-" + i + ".bin").toString();
+        }
+        params.put("OUTPUT_FILE_PATH", String.join(BRANCH_DELIMITER, outputPaths));
+
+        return outputPaths;
+    }
+}
@@ -0,0 +1,93 @@
+package timofeeva.benchmark;
+
+import ru.spbstu.pipeline.*;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Прозрачный executor, который стенд вставляет первым в каждую ветку:
+ * данные producer'а передаются дальше без изменений, а время обработки
+ * каждой порции оставшейся частью конвейера сохраняется.
+ */
+public class ProbeExecutor implements IExecutor {
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // задержки без упаковки в Long: массив растет удвоением, между прогонами переиспользуется
+    private static long[] chunkLatencies = new long[INITIAL_CAPACITY];
+    private static int chunkLatencyCount;
+    private final Logger logger;
+    private IProducer producer;
+    private IConsumer consumer;
+
+    public ProbeExecutor(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * @return задержки обработки порций в наносекундах с последнего вызова, список очищается
+     */
+    static synchronized long[] takeChunkLatencies() {
+        long[] latencies = Arrays.copyOf(chunkLatencies, chunkLatencyCount);
+        chunkLatencyCount = 0;
+        return latencies;
+    }
+
+    private static synchronized void addChunkLatency(long nanos) {
+        if (chunkLatencyCount == chunkLatencies.length) {
+            chunkLatencies = Arrays.copyOf(chunkLatencies, chunkLatencies.length * 2);
+        }
+        chunkLatencies[chunkLatencyCount++] = nanos;
+    }
+
+    @Override
+    public RC execute() {
+        long start = System.nanoTime();
+        RC rc = consumer.execute();
+        addChunkLatency(System.nanoTime() - start);
+
+        return rc;
+    }
+
+    @Override
+    public RC setConsumer(IConsumer iConsumer) {
+        if (iConsumer == null) {
+            logWarn("Consumer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        consumer = iConsumer;
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setProducer(IProducer iProducer) {
+        if (iProducer == null) {
+            logWarn("Producer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        producer = iProducer;
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public TYPE[] getOutputTypes() {
+        return producer.getOutputTypes();
+    }
+
+    @Override
+    public IMediator getMediator(TYPE type) {
+        return producer.getMediator(type);
+    }
+
+    private void logWarn(String message) {
+        if (logger != null) {
+            logger.warning(message);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package timofeeva.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Эталонная модель преобразований известных компонент: по входному файлу
+ * вычисляет ожидаемый вывод ветки и сравнивает его с фактическим.
+ */
+public class ReferenceModel {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    // преобразование порции на месте, возвращает новую длину порции
+    interface Transform {
+        int apply(byte[] data, int len);
+    }
+
+    private static final Transform IDENTITY = (data, len) -> len;
+    private static final Map<String, Transform> KNOWN_COMPONENTS = new HashMap<>();
+
+    static {
+        KNOWN_COMPONENTS.put("timofeeva.reader.Reader", IDENTITY);
+        // executor дважды инвертирует байты (при буферизации и при выдаче), итоговое преобразование тождественно
+        KNOWN_COMPONENTS.put("timofeeva.executor.Executor", IDENTITY);
+        KNOWN_COMPONENTS.put("timofeeva.writer.Writer", IDENTITY);
+        KNOWN_COMPONENTS.put(ProbeExecutor.class.getName(), IDENTITY);
+    }
+
+    private final List<Transform> transforms;
+
+    private ReferenceModel(List<Transform> transforms) {
+        this.transforms = transforms;
+    }
+
+    /**
+     * @param classNames - классы компонент ветки в порядке обработки
+     * @return модель ветки или null, если в ветке есть компоненты с неизвестным преобразованием
+     */
+    public static ReferenceModel forChain(List<String> classNames) {
+        List<Transform> transforms = new ArrayList<>();
+        for (String className : classNames) {
+            Transform transform = KNOWN_COMPONENTS.get(className);
+            if (transform == null) {
+                return null;
+            }
+            transforms.add(transform);
+        }
+
+        return new ReferenceModel(transforms);
+    }
+
+    /**
+     * @return модель без преобразований - для сверки вывода с эталонным выводом того же конвейера
+     */
+    public static ReferenceModel identity() {
+        return new ReferenceModel(new ArrayList<>());
+    }
+
+    /**
+     * @return смещение первого расхождения или -1, если вывод совпал с ожидаемым
+     */
+    public long findMismatch(String inputPath, String outputPath) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] actual = new byte[BLOCK_SIZE];
+        long offset = 0;
+        try (InputStream input = new BufferedInputStream(new FileInputStream(inputPath));
+             InputStream output = new BufferedInputStream(new FileInputStream(outputPath))) {
+            int len;
+            while ((len = input.readNBytes(block, 0, BLOCK_SIZE)) > 0) {
+                for (Transform transform : transforms) {
+                    len = transform.apply(block, len);
+                }
+                int actualLen = output.readNBytes(actual, 0, len);
+                for (int i = 0; i < len; i++) {
+                    if (i >= actualLen || actual[i] != block[i]) {
+                        return offset + i;
+                    }
+                }
+                offset += len;
+            }
+            // в выводе не должно быть лишних байт
+            return output.read() == -1 ? -1 : offset;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package timofeeva.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Замер запуска конвейера на маленьких входах: для каждого конфига запускает отдельные JVM
+ * с обычными параметрами и в режиме быстрого старта (AppCDS-архив из scripts/build-cds.sh,
+ * только C1, SerialGC) и печатает медианы времени до первого байта вывода и полного времени.
+ * Запускается из каталога Manager:
+ * <pre>
+ * StartupBenchmark [--size 4k] [--configs 1,2,3,4] [--runs 5] [--archive build/cds/pipeline.jsa] [--classpath ...]
+ * </pre>
+ */
+public class StartupBenchmark {
+    private static final String CONFIG_FILE_PATTERN = "config/%s/config_src.cfg";
+    private static final String CDS_CLASSPATH_FILE = "build/cds/classpath";
+    private static final String[] OPTIMIZED_OPTIONS = {"-Xshare:auto", "-XX:TieredStopAtLevel=1", "-XX:+UseSerialGC"};
+
+    private final Map<String, String> options = new HashMap<>();
+    private final Path workDir;
+
+    private StartupBenchmark(String[] args) throws IOException {
+        options.put("size", "4k");
+        options.put("configs", "1,2,3,4");
+        options.put("runs", "5");
+        options.put("archive", "build/cds/pipeline.jsa");
+        options.put("classpath", readDefaultClasspath());
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        workDir = Files.createTempDirectory("pipeline-startup");
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        new StartupBenchmark(args).run();
+    }
+
+    // архив CDS годится только для того classpath, с которым он собран
+    private static String readDefaultClasspath() throws IOException {
+        Path cdsClasspath = Paths.get(CDS_CLASSPATH_FILE);
+        if (Files.exists(cdsClasspath)) {
+            return Files.readString(cdsClasspath).trim();
+        }
+        return System.getProperty("java.class.path");
+    }
+
+    private void run() throws IOException, InterruptedException {
+        long size = Harness.parseSize(options.get("size"));
+        String inputPath = workDir.resolve("input.bin").toString();
+        new WorkloadGenerator(WorkloadGenerator.Distribution.UTF8_TEXT, 1, 0).generate(inputPath, size);
+
+        List<String> optimizedOptions = new ArrayList<>(Arrays.asList(OPTIMIZED_OPTIONS));
+        if (new File(options.get("archive")).exists()) {
+            optimizedOptions.add("-XX:SharedArchiveFile=" + options.get("archive"));
+        } else {
+            System.out.println("archive " + options.get("archive") + " not found, run scripts/build-cds.sh first; measuring without AppCDS");
+        }
+
+        System.out.printf("input: %d bytes%n", size);
+        System.out.printf("%-8s %-10s %12s %12s%n", "config", "mode", "ttfb ms", "total ms");
+        for (String config : options.get("configs").split(",")) {
+            Map<String, String> params = PipelineConfig.read(String.format(CONFIG_FILE_PATTERN, config));
+            params.put("INPUT_FILE_PATH", inputPath);
+            params.remove("INCREMENTAL_STATE_PATH");
+            String outputPath = PipelineConfig.redirectOutputs(params, workDir, "output-" + config)[0];
+            String configPath = PipelineConfig.write(params, workDir, "config-" + config + ".cfg");
+
+            measure(config, "default", Collections.emptyList(), configPath, outputPath);
+            measure(config, "optimized", optimizedOptions, configPath, outputPath);
+        }
+    }
+
+    private void measure(String config, String mode, List<String> jvmOptions, String configPath, String outputPath)
+            throws IOException, InterruptedException {
+        int runs = Integer.parseInt(options.get("runs"));
+        long[] firstByteMillis = new long[runs];
+        long[] totalMillis = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            Files.deleteIfExists(Paths.get(outputPath));
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmOptions);
+            command.addAll(Arrays.asList("-cp", options.get("classpath"), "timofeeva.manager.Main", configPath));
+
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            File output = new File(outputPath);
+            long firstByte = -1;
+            while (process.isAlive()) {
+                if (firstByte < 0 && output.length() > 0) {
+                    firstByte = System.nanoTime();
+                }
+                Thread.sleep(0, 200_000);
+            }
+            long end = System.nanoTime();
+            if (process.exitValue() != 0) {
+                System.out.printf("%-8s %-10s failed with exit code %d%n", config, mode, process.exitValue());
+                return;
+            }
+            // вывод мог появиться уже после последней проверки
+            firstByteMillis[i] = ((firstByte < 0 ? end : firstByte) - start) / 1_000_000;
+            totalMillis[i] = (end - start) / 1_000_000;
+        }
+
+        Arrays.sort(firstByteMillis);
+        Arrays.sort(totalMillis);
+        System.out.printf("%-8s %-10s %12d %12d%n", config, mode, firstByteMillis[runs / 2], totalMillis[runs / 2]);
+    }
+}
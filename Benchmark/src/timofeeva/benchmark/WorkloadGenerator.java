@@ -0,0 +1,86 @@
+package timofeeva.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Генератор детерминированных входных файлов заданного размера и распределения:
+ * одинаковые seed и параметры всегда дают одинаковый файл.
+ */
+public class WorkloadGenerator {
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final String TEXT_ALPHABET = "abcdefghijklmnopqrstuvwxyzабвгдеёжзийклмнопрстуфхцчшщъыьэюя     .,\n";
+
+    public enum Distribution {
+        // случайные ненулевые байты с заданной долей нулевых
+        ZERO_DENSITY,
+        // текст из латиницы, кириллицы и пробелов в UTF-8
+        UTF8_TEXT,
+        // равномерно распределенные байты
+        RANDOM_BINARY
+    }
+
+    private final Distribution distribution;
+    private final long seed;
+    private final double zeroDensity;
+
+    /**
+     * @param zeroDensity - доля нулевых байт, используется только для ZERO_DENSITY
+     */
+    public WorkloadGenerator(Distribution distribution, long seed, double zeroDensity) {
+        this.distribution = distribution;
+        this.seed = seed;
+        this.zeroDensity = zeroDensity;
+    }
+
+    public void generate(String filePath, long size) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        byte[] block = new byte[BLOCK_SIZE];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath))) {
+            long written = 0;
+            while (written < size) {
+                int len = (int) Math.min(BLOCK_SIZE, size - written);
+                fillBlock(random, block, len);
+                out.write(block, 0, len);
+                written += len;
+            }
+        }
+    }
+
+    private void fillBlock(SplittableRandom random, byte[] block, int len) {
+        switch (distribution) {
+            case ZERO_DENSITY:
+                for (int i = 0; i < len; i++) {
+                    block[i] = random.nextDouble() < zeroDensity ? 0 : (byte) random.nextInt(1, 256);
+                }
+                break;
+            case UTF8_TEXT:
+                fillText(random, block, len);
+                break;
+            case RANDOM_BINARY:
+                for (int i = 0; i < len; i++) {
+                    block[i] = (byte) random.nextInt(256);
+                }
+                break;
+        }
+    }
+
+    // заполняем блок целыми UTF-8 символами, хвост, в который символ не поместился, добиваем пробелами
+    private void fillText(SplittableRandom random, byte[] block, int len) {
+        int i = 0;
+        while (i < len) {
+            char c = TEXT_ALPHABET.charAt(random.nextInt(TEXT_ALPHABET.length()));
+            byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+            if (i + encoded.length > len) {
+                block[i++] = ' ';
+                continue;
+            }
+            System.arraycopy(encoded, 0, block, i, encoded.length);
+            i += encoded.length;
+        }
+    }
+}
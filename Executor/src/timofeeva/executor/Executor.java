@@ -1,6 +1,16 @@
 package timofeeva.executor;
 
 import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.Batch;
+import timofeeva.pipeline.CancellationToken;
+import timofeeva.pipeline.ChunkLog;
+import timofeeva.pipeline.CopyAllocations;
+import timofeeva.pipeline.Frame;
+import timofeeva.pipeline.IBatchMediator;
+import timofeeva.pipeline.IResolvedStep;
+import timofeeva.pipeline.MediatorConversionEvent;
+import timofeeva.pipeline.Mediators;
+import timofeeva.pipeline.StageExecuteEvent;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -8,13 +18,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
-public class Executor implements IExecutor {
+public class Executor implements IExecutor, IResolvedStep {
     private static final String BUFFER_SIZE_PARAM = "BUFFER_SIZE";
     private final Map<String, String> params = new HashMap<>();
     private final BaseGrammar executorGrammar = new BaseGrammar(new String[]{BUFFER_SIZE_PARAM}) {
@@ -23,37 +32,86 @@ public class Executor implements IExecutor {
             return super.delimiter();
         }
     };
-    private final IMediator mediatorByte = () -> {
-        if (this.outputBuffer != null) {
-            invertBuffer(0, this.bytesInBuffer);
-            return this.outputBuffer.clone();
+    private final IMediator mediatorByte = new IBatchMediator() {
+        @Override
+        public Batch getBatch() {
+            if (exportBuffer != null) {
+                return Batch.of(new Frame(exportBuffer, 0, exportLength, exportIndex));
+            }
+            return Batch.END_OF_STREAM;
+        }
+
+        @Override
+        public Object getData() {
+            if (exportBuffer != null) {
+                CopyAllocations.record(exportLength);
+                return Arrays.copyOf(exportBuffer, exportLength);
+            }
+            return null;
         }
-        return null;
     };
-    private final IMediator mediatorShort = () -> {
-        if (Executor.this.outputBuffer != null) {
-            invertBuffer(0, this.bytesInBuffer);
-            short[] shorts = new short[this.outputBuffer.length / 2];
-            ByteBuffer.wrap(this.outputBuffer).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(shorts);
-            return shorts;
-        }
-        return null;
+    private final IMediator mediatorShort = new IBatchMediator() {
+        @Override
+        public Batch getBatch() {
+            Object shorts = getData();
+            if (shorts != null) {
+                // дополнение нечетного хвоста - не данные, consumer отбросит его при обратном переводе в байты
+                return Batch.of(new Frame(shorts, 0, ((short[]) shorts).length, exportIndex, exportLength % 2));
+            }
+            return Batch.END_OF_STREAM;
+        }
+
+        @Override
+        public Object getData() {
+            if (exportBuffer != null) {
+                MediatorConversionEvent event = new MediatorConversionEvent();
+                event.begin();
+                // нечетный последний байт дополняем нулем
+                short[] shorts = new short[(exportLength + 1) / 2];
+                ByteBuffer.wrap(Arrays.copyOf(exportBuffer, shorts.length * 2)).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(shorts);
+                // массив shorts и промежуточная копия байтов
+                CopyAllocations.record(shorts.length * 2L * Short.BYTES);
+                event.finish(Executor.class.getSimpleName(), TYPE.BYTE, TYPE.SHORT, exportLength, shorts.length);
+                return shorts;
+            }
+            return null;
+        }
     };
-    private final IMediator mediatorChar = () -> {
-        if (Executor.this.outputBuffer != null) {
-            String text = new String(Executor.this.outputBuffer, StandardCharsets.UTF_8);
-            return text.toCharArray();
+    private final IMediator mediatorChar = new IBatchMediator() {
+        @Override
+        public Batch getBatch() {
+            Object chars = getData();
+            if (chars != null) {
+                return Batch.of(new Frame(chars, 0, ((char[]) chars).length, exportIndex));
+            }
+            return Batch.END_OF_STREAM;
+        }
+
+        @Override
+        public Object getData() {
+            if (exportBuffer != null) {
+                MediatorConversionEvent event = new MediatorConversionEvent();
+                event.begin();
+                char[] chars = new String(exportBuffer, 0, exportLength, StandardCharsets.UTF_8).toCharArray();
+                CopyAllocations.record(chars.length * (long) Character.BYTES);
+                event.finish(Executor.class.getSimpleName(), TYPE.BYTE, TYPE.CHAR, exportLength, chars.length);
+                return chars;
+            }
+            return null;
         }
-        return null;
     };
     private Logger logger;
     private IProducer producer;
     private IConsumer consumer;
-    private IMediator producerMediator;
+    private IBatchMediator producerMediator;
     private int bufferSize;
-    private byte[] outputBuffer;
+    private byte[] outputBuffer;// накопленные байты хранятся инвертированными
     private int bytesInBuffer;
+    private byte[] exportBuffer;// байты, передаваемые consumer'у
+    private int exportLength;
+    private long exportIndex;// номер переданной порции
     private TYPE producerType;
+    private long chunkIndex;// номер полученной порции
 
     private void logWarn(String message) {
         if (logger != null) {
@@ -67,56 +125,113 @@ public class Executor implements IExecutor {
 
     @Override
     public RC execute() {
-        Object data = producerMediator.getData();
-        byte[] newBytes = convertInputDataTyBytes(data);
+        if (CancellationToken.current().isCancelled()) {
+            return CancellationToken.STOPPED;
+        }
+        chunkIndex++;
+        StageExecuteEvent event = new StageExecuteEvent();
+        event.begin();
+        Batch batch = producerMediator.getBatch();
+        RC rc = batch.isEndOfStream() ? finishStream() : processBatch(batch);
+        event.finish(Executor.class.getSimpleName(), chunkIndex, producerType,
+                batch.getLength() * (producerType == TYPE.BYTE ? Byte.BYTES : Character.BYTES));
+
+        return rc;
+    }
 
-        if (newBytes == null) {
-            RC rc = consumer.execute();
+    private RC finishStream() {
+        // передаем остаток буффера
+        if (bytesInBuffer > 0) {
+            invertBuffer(outputBuffer, 0, bytesInBuffer);
+            RC rc = export(outputBuffer, bytesInBuffer);
             if (rc != RC.CODE_SUCCESS) {
                 return rc;
             }
-            // зануляем буффер
-            outputBuffer = null;
-            bytesInBuffer = 0;
-            // сигнализируем о завершении consumer'у
-            return consumer.execute();
-        }
-
-        // если в буффер все не поместится
-        byte[] bufferPlusNewData = Arrays.copyOf(outputBuffer, bytesInBuffer + newBytes.length);
-        System.arraycopy(newBytes, 0, bufferPlusNewData, bytesInBuffer, newBytes.length);
-        if (bufferSize - bytesInBuffer < newBytes.length) {
-            // заполняем буффер
-//            System.arraycopy(newBytes, bytesInBuffer, bufferPlusNewData, 0, newBytes.length);
-            int offset = bufferPlusNewData.length % bufferSize; // кол-во байт, которые останутся в буффере
-//            if (offset == 0) {
-//                offset = bufferSize;
-//            }
-
-            //данные которе не помещаются в буффер
-            byte[] exportBytes = Arrays.copyOf(bufferPlusNewData, bufferPlusNewData.length - offset);
-
-            // пытаемся передать все байты дальше
-            outputBuffer = exportBytes;
-            RC rc = consumer.execute();
+        }
+        // зануляем буффер
+        bytesInBuffer = 0;
+        exportBuffer = null;
+        exportLength = 0;
+        // сигнализируем о завершении consumer'у
+        return consumer.execute();
+    }
+
+    private RC processBatch(Batch batch) {
+        for (Frame frame : batch.getFrames()) {
+            byte[] newBytes;
+            int offset;
+            int length;
+            try {
+                if (producerType == TYPE.BYTE) {
+                    // байты берем прямо из кадра, без копирования
+                    newBytes = (byte[]) frame.getData();
+                    offset = frame.getOffset();
+                    length = frame.getLength();
+                } else {
+                    MediatorConversionEvent conversionEvent = new MediatorConversionEvent();
+                    conversionEvent.begin();
+                    newBytes = convertFrameToBytes(frame);
+                    CopyAllocations.record(newBytes.length);
+                    conversionEvent.finish(Executor.class.getSimpleName(), producerType, TYPE.BYTE, frame.getLength(), newBytes.length);
+                    offset = 0;
+                    length = newBytes.length;
+                }
+            } catch (RuntimeException e) {
+                ChunkLog.warn(logger, "Error while converting data in Executor", Executor.class.getSimpleName(), chunkIndex);
+                return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+            }
+
+            RC rc = accept(newBytes, offset, length);
             if (rc != RC.CODE_SUCCESS) {
                 return rc;
             }
-            // если получилось передать - записываем в буффер ОСТАВШИЕСЯ байты
-            outputBuffer = new byte[bufferSize];
-            System.arraycopy(newBytes, newBytes.length - offset, outputBuffer, 0, offset);
-            bytesInBuffer = offset;
-            invertBuffer(0, offset);
-        } else {
-            // помещаем все в буффер
-            outputBuffer = new byte[bufferSize];
-            System.arraycopy(bufferPlusNewData, 0, outputBuffer, 0, bufferPlusNewData.length);
-            invertBuffer(bytesInBuffer, bufferPlusNewData.length);
-            bytesInBuffer = bufferPlusNewData.length;
         }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    private RC accept(byte[] newBytes, int offset, int length) {
+        // если все помещается в буффер
+        if (bufferSize - bytesInBuffer >= length) {
+            System.arraycopy(newBytes, offset, outputBuffer, bytesInBuffer, length);
+            invertBuffer(outputBuffer, bytesInBuffer, bytesInBuffer + length);
+            bytesInBuffer += length;
+            return RC.CODE_SUCCESS;
+        }
+
+        // передаем дальше буффер и новые данные целыми буфферами, остаток оставляем в буффере
+        int total = bytesInBuffer + length;
+        int remainder = total % bufferSize;
+        int exportBytes = total - remainder;
+        if (exportBuffer == null || exportBuffer.length < exportBytes) {
+            // буфер передачи растет до наибольшей переданной порции, в BUFFER_SIZE он не входит
+            exportBuffer = new byte[exportBytes];
+            CopyAllocations.record(exportBytes);
+        }
+        System.arraycopy(outputBuffer, 0, exportBuffer, 0, bytesInBuffer);
+        invertBuffer(exportBuffer, 0, bytesInBuffer);
+        System.arraycopy(newBytes, offset, exportBuffer, bytesInBuffer, exportBytes - bytesInBuffer);
+        RC rc = export(exportBuffer, exportBytes);
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        // если получилось передать - записываем в буффер ОСТАВШИЕСЯ байты
+        System.arraycopy(newBytes, offset + length - remainder, outputBuffer, 0, remainder);
+        invertBuffer(outputBuffer, 0, remainder);
+        bytesInBuffer = remainder;
+
         return RC.CODE_SUCCESS;
     }
 
+    private RC export(byte[] bytes, int length) {
+        exportBuffer = bytes;
+        exportLength = length;
+        exportIndex++;
+
+        return consumer.execute();
+    }
+
     @Override
     public RC setConsumer(IConsumer iConsumer) {
         if (iConsumer == null) {
@@ -137,10 +252,7 @@ public class Executor implements IExecutor {
         for (TYPE type : new TYPE[]{TYPE.BYTE, TYPE.SHORT, TYPE.CHAR}) {
             for (TYPE supportedProducerType : iProducer.getOutputTypes()) {
                 if (type == supportedProducerType) {
-                    producerType = supportedProducerType;
-                    producerMediator = iProducer.getMediator(supportedProducerType);
-                    producer = iProducer;
-                    return RC.CODE_SUCCESS;
+                    return setProducer(iProducer, supportedProducerType);
                 }
             }
         }
@@ -149,9 +261,46 @@ public class Executor implements IExecutor {
         return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
     }
 
+    @Override
+    public RC setProducer(IProducer iProducer, TYPE type) {
+        producerType = type;
+        producerMediator = Mediators.asBatchMediator(iProducer.getMediator(type), type);
+        producer = iProducer;
+
+        return RC.CODE_SUCCESS;
+    }
+
     @Override
     public RC setConfig(String s) {
-        return getParams(s);
+        RC rc = getParams(s);
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        return applyParams();
+    }
+
+    @Override
+    public Map<String, String> getResolvedConfig() {
+        return new HashMap<>(params);
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public TYPE getProducerType() {
+        return producerType;
+    }
+
+    @Override
+    public RC setResolvedConfig(Map<String, String> resolvedParams) {
+        params.clear();
+        params.putAll(resolvedParams);
+
+        return applyParams();
     }
 
     @Override
@@ -168,28 +317,24 @@ public class Executor implements IExecutor {
         };
     }
 
-    private byte[] convertInputDataTyBytes(Object data) {
-        try {
-            switch (producerType) {
-                case BYTE:
-                    return filterBytes((byte[]) data);
-                case SHORT:
-                    short[] shortData = (short[]) data;
-                    byte[] byteData = new byte[shortData.length * 2];
-                    for (int i = 0, j = 0; i < byteData.length; i += 2, j++) {
-                        short shortValue = shortData[j];
-                        byteData[i] = (byte) (shortValue & 0xff);
+    private byte[] convertFrameToBytes(Frame frame) {
+        switch (producerType) {
+            case SHORT:
+                short[] shortData = (short[]) frame.getData();
+                byte[] byteData = new byte[frame.getLength() * 2 - frame.getPaddingBytes()];
+                for (int i = 0, j = frame.getOffset(); i < byteData.length; i += 2, j++) {
+                    short shortValue = shortData[j];
+                    byteData[i] = (byte) (shortValue & 0xff);
+                    if (i + 1 < byteData.length) {
                         byteData[i + 1] = (byte) ((shortValue >> 8) & 0xff);
                     }
-                    return byteData;
-                case CHAR:
-                    return new String((char[]) data).getBytes(StandardCharsets.UTF_8);
-            }
-        } catch (Throwable t) {
-            logWarn("Error while converting data in Writer");
+                }
+                return byteData;
+            case CHAR:
+                return new String((char[]) frame.getData(), frame.getOffset(), frame.getLength()).getBytes(StandardCharsets.UTF_8);
+            default:
+                return Arrays.copyOfRange((byte[]) frame.getData(), frame.getOffset(), frame.getOffset() + frame.getLength());
         }
-
-        return null;
     }
 
     private RC getParams(String filePath) {
@@ -206,6 +351,10 @@ public class Executor implements IExecutor {
             return RC.CODE_CONFIG_GRAMMAR_ERROR;
         }
 
+        return RC.CODE_SUCCESS;
+    }
+
+    private RC applyParams() {
         if (params.containsKey(BUFFER_SIZE_PARAM)) {
             try {
                 bufferSize = Integer.parseInt(params.get(BUFFER_SIZE_PARAM));
@@ -220,26 +369,9 @@ public class Executor implements IExecutor {
         return RC.CODE_SUCCESS;
     }
 
-    private void invertBuffer(int startIndex, int endIndex) {
+    private void invertBuffer(byte[] buffer, int startIndex, int endIndex) {
         for (int i = startIndex; i < endIndex; i++) {
-//            System.out.println("b:" + Integer.toBinaryString((outputBuffer[i] & 0xFF) + 0x100).substring(1));
-            outputBuffer[i] = (byte) (~outputBuffer[i] & 0xff);
-//            System.out.println("a:" + Integer.toBinaryString((outputBuffer[i] & 0xFF) + 0x100).substring(1));
+            buffer[i] = (byte) (~buffer[i] & 0xff);
         }
     }
-
-    private byte[] filterBytes(byte[] input) {
-        ArrayList<Byte> output = new ArrayList<>();
-        for (byte b : input) {
-            if (b != 0) {
-                output.add(b);
-            }
-        }
-        byte[] newArr = new byte[output.size()];
-        for (int i = 0; i < output.size(); i++) {
-            newArr[i] = output.get(i);
-        }
-
-        return newArr;
-    }
 }
@@ -0,0 +1,62 @@
+package timofeeva.executor;
+
+import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.Batch;
+import timofeeva.pipeline.Frame;
+import timofeeva.pipeline.IBatchMediator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Проверка перевода SHORT -> BYTE: дополнение нечетного хвоста не попадает в вывод. При ошибке завершается с кодом 1.
+ */
+public class ExecutorShortTest {
+    public static void main(String[] args) {
+        // 5 байт 1..5 как SHORT (little endian), последний элемент дополнен нулем
+        short[] shorts = {(short) 0x0201, (short) 0x0403, (short) 0x0005};
+        Batch[] input = {Batch.of(new Frame(shorts, 0, shorts.length, 0, 1)), Batch.END_OF_STREAM};
+        int[] next = {0};
+        IProducer producer = new IProducer() {
+            @Override
+            public TYPE[] getOutputTypes() {
+                return new TYPE[]{TYPE.SHORT};
+            }
+
+            @Override
+            public IMediator getMediator(TYPE type) {
+                return new IBatchMediator() {
+                    @Override
+                    public Batch getBatch() {
+                        return input[next[0]];
+                    }
+
+                    @Override
+                    public Object getData() {
+                        return null;
+                    }
+                };
+            }
+        };
+
+        Executor executor = new Executor(null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        IBatchMediator result = (IBatchMediator) executor.getMediator(TYPE.BYTE);
+        executor.setResolvedConfig(Map.of("BUFFER_SIZE", "4"));
+        executor.setProducer(producer);
+        executor.setConsumer(() -> {
+            for (Frame frame : result.getBatch().getFrames()) {
+                output.write((byte[]) frame.getData(), frame.getOffset(), frame.getLength());
+            }
+            return RC.CODE_SUCCESS;
+        });
+
+        boolean ok = executor.execute() == RC.CODE_SUCCESS;
+        next[0]++;
+        ok &= executor.execute() == RC.CODE_SUCCESS;
+        ok &= Arrays.equals(output.toByteArray(), new byte[]{1, 2, 3, 4, 5});
+        System.out.println((ok ? "ok   " : "FAIL ") + "odd SHORT tail round trip: " + Arrays.toString(output.toByteArray()));
+        System.exit(ok ? 0 : 1);
+    }
+}
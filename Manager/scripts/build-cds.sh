@@ -0,0 +1,35 @@
+#!/bin/sh
+# Собирает AppCDS-архив классов конвейера по тренировочным прогонам конфигов 1-4.
+# Запускать из каталога Manager; менеджер собирается из src, компоненты берутся из jar-ников каталога lib
+# (их пересобирает scripts/build-jars.sh). Выход и лог тренировочных прогонов пишутся во временный каталог.
+set -e
+
+BUILD_DIR=build/cds
+ARCHIVE=${ARCHIVE:-$BUILD_DIR/pipeline.jsa}
+TRAINING_DIR=$(mktemp -d)
+trap 'rm -rf "$TRAINING_DIR"' EXIT
+
+rm -rf "$BUILD_DIR/classes"
+mkdir -p "$BUILD_DIR/classes"
+javac -Xlint:-options -source 15 -target 15 -encoding UTF-8 -cp "lib/*" -d "$BUILD_DIR/classes" $(find src -name '*.java')
+# в classpath архива допускаются только jar-ники
+jar cf "$BUILD_DIR/Manager.jar" -C "$BUILD_DIR/classes" .
+CLASSPATH="$BUILD_DIR/Manager.jar"
+for jar in lib/*.jar; do
+    CLASSPATH="$CLASSPATH:$jar"
+done
+
+rm -f "$BUILD_DIR"/classes-*.lst
+for config in 1 2 3 4; do
+    # конфиги 1-4 с одной веткой: подменяем только выходной файл, остальные пути остаются относительно Manager
+    sed "s#^OUTPUT_FILE_PATH=[^\r]*#OUTPUT_FILE_PATH=$TRAINING_DIR/output_file_$config.txt#" \
+        "config/$config/config_src.cfg" > "$TRAINING_DIR/config_src_$config.cfg"
+    java -Xshare:off -XX:DumpLoadedClassList="$BUILD_DIR/classes-$config.lst" -Dtimofeeva.log.file="$TRAINING_DIR/sessionLogs.txt" \
+        -cp "$CLASSPATH" timofeeva.manager.Main "$TRAINING_DIR/config_src_$config.cfg"
+done
+# объединяем списки, сохраняя порядок загрузки
+awk '!seen[$0]++' "$BUILD_DIR"/classes-*.lst > "$BUILD_DIR/classes.lst"
+
+java -Xshare:dump -XX:SharedClassListFile="$BUILD_DIR/classes.lst" -XX:SharedArchiveFile="$ARCHIVE" -cp "$CLASSPATH"
+echo "$CLASSPATH" > "$BUILD_DIR/classpath"
+echo "AppCDS archive: $ARCHIVE"
@@ -0,0 +1,22 @@
+#!/bin/sh
+# Пересобирает jar-ники своих компонент в lib (BatchApi.jar, Reader.jar, Executor.jar, Writer.jar)
+# и их копии в out/artifacts модулей. Запускать из каталога Manager после каждого изменения исходников компонент:
+# менеджер загружает компоненты только из lib. Классы собираются под Java 15, как и исходные jar-ники.
+set -e
+
+BUILD_DIR=build/jars
+rm -rf "$BUILD_DIR"
+mkdir -p "$BUILD_DIR"
+
+CLASSPATH=lib/interfaces.jar
+for module in BatchApi Reader Executor Writer; do
+    mkdir -p "$BUILD_DIR/$module"
+    javac -Xlint:-options -source 15 -target 15 -encoding UTF-8 -cp "$CLASSPATH" -d "$BUILD_DIR/$module" \
+        $(find "../$module/src" -name '*.java')
+    jar --create --file "lib/$module.jar" --manifest "../$module/src/META-INF/MANIFEST.MF" -C "$BUILD_DIR/$module" timofeeva
+    if [ -d "../$module/out/artifacts/${module}_jar" ]; then
+        cp "lib/$module.jar" "../$module/out/artifacts/${module}_jar/$module.jar"
+    fi
+    CLASSPATH="$CLASSPATH:$BUILD_DIR/$module"
+done
+echo "component jars rebuilt in lib"
@@ -0,0 +1,8 @@
+#!/bin/sh
+# Запуск менеджера в режиме быстрого старта для коротких конвейеров:
+# AppCDS-архив из build-cds.sh, только C1 и SerialGC. Запускать из каталога Manager.
+BUILD_DIR=build/cds
+ARCHIVE=${ARCHIVE:-$BUILD_DIR/pipeline.jsa}
+
+exec java -Xshare:auto -XX:SharedArchiveFile="$ARCHIVE" -XX:TieredStopAtLevel=1 -XX:+UseSerialGC \
+    -cp "$(cat "$BUILD_DIR/classpath")" timofeeva.manager.Main "$@"
@@ -0,0 +1,111 @@
+package timofeeva.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Асинхронный handler: компоненты только кладут запись в кольцевой буфер,
+ * а форматирование и запись в файл выполняет отдельный поток.
+ * При переполнении буфера записи отбрасываются, их количество выводится следующей записью.
+ */
+class AsyncLogHandler extends Handler {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private final BlockingQueue<LogRecord> records;
+    private final Handler[] delegates;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    AsyncLogHandler(Handler... delegates) {
+        this(DEFAULT_CAPACITY, delegates);
+    }
+
+    AsyncLogHandler(int capacity, Handler... delegates) {
+        this.records = new ArrayBlockingQueue<>(capacity);
+        this.delegates = delegates;
+        worker = new Thread(this::drainLoop, "async-log-handler");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        // место вызова определяется по стеку, поэтому вычисляем его до передачи записи в другой поток
+        record.getSourceClassName();
+        if (!records.offer(record)) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        for (Handler delegate : delegates) {
+            delegate.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        for (Handler delegate : delegates) {
+            delegate.close();
+        }
+    }
+
+    private void drainLoop() {
+        while (!closed) {
+            try {
+                write(records.take());
+                drain();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void drain() {
+        List<LogRecord> batch = new ArrayList<>();
+        records.drainTo(batch);
+        for (LogRecord record : batch) {
+            write(record);
+        }
+    }
+
+    private synchronized void write(LogRecord record) {
+        long dropped = droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            LogRecord droppedRecord = new LogRecord(record.getLevel(), "{0} log records were dropped, log buffer is full");
+            droppedRecord.setParameters(new Object[]{dropped});
+            droppedRecord.setLoggerName(record.getLoggerName());
+            publishToDelegates(droppedRecord);
+        }
+        publishToDelegates(record);
+    }
+
+    private void publishToDelegates(LogRecord record) {
+        for (Handler delegate : delegates) {
+            try {
+                delegate.publish(record);
+            } catch (RuntimeException e) {
+                reportError("Error while publishing log record", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+}
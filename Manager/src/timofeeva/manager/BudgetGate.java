@@ -0,0 +1,148 @@
+package timofeeva.manager;
+
+import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.Batch;
+import timofeeva.pipeline.Frame;
+import timofeeva.pipeline.IBatchMediator;
+import timofeeva.pipeline.Mediators;
+
+import java.util.logging.Logger;
+
+/**
+ * Прозрачная ступень перед компонентой, учитывающая переданные ей порции в бюджете памяти.
+ * Если порция от producer'а больше допустимой, ее кадры передаются компоненте по частям.
+ */
+class BudgetGate implements IExecutor {
+    private final MemoryBudget budget;
+    private final int stage;
+    private final Logger logger;
+    private IProducer producer;
+    private IConsumer consumer;
+    private IBatchMediator producerMediator;
+    private TYPE consumerType;
+    private Batch slice = Batch.END_OF_STREAM;
+
+    BudgetGate(MemoryBudget budget, int stage, Logger logger) {
+        this.budget = budget;
+        this.stage = stage;
+        this.logger = logger;
+    }
+
+    @Override
+    public RC execute() {
+        if (producerMediator == null) {
+            // компонента не запросила данные - передаем только сигнал
+            return consumer.execute();
+        }
+
+        Batch batch = producerMediator.getBatch();
+        if (batch.isEndOfStream()) {
+            // сигнал о завершении
+            slice = Batch.END_OF_STREAM;
+            return consumer.execute();
+        }
+
+        int elementSize = consumerType == TYPE.BYTE ? Byte.BYTES : Short.BYTES;
+        int maxLength = (int) Math.min(Integer.MAX_VALUE, budget.getSliceLimit() / elementSize);
+        if (maxLength < 1) {
+            logWarn("No room in memory budget for a slice");
+            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+        }
+        if (batch.getLength() <= maxLength) {
+            return passSlice(batch, batch.getLength() * elementSize);
+        }
+
+        // порция не помещается в бюджет - делим кадры без копирования данных
+        for (Frame frame : batch.getFrames()) {
+            for (int from = 0; from < frame.getLength(); ) {
+                int to = getSliceEnd(frame, from, Math.min(frame.getLength(), from + maxLength));
+                RC rc = passSlice(Batch.of(frame.slice(from, to)), (to - from) * (long) elementSize);
+                if (rc != RC.CODE_SUCCESS) {
+                    return rc;
+                }
+                from = to;
+            }
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setConsumer(IConsumer iConsumer) {
+        if (iConsumer == null) {
+            logWarn("Consumer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        consumer = iConsumer;
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setProducer(IProducer iProducer) {
+        if (iProducer == null) {
+            logWarn("Producer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        producer = iProducer;
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public TYPE[] getOutputTypes() {
+        return producer.getOutputTypes();
+    }
+
+    @Override
+    public IMediator getMediator(TYPE type) {
+        // компонента получает данные того же типа, что и от producer'а напрямую
+        consumerType = type;
+        producerMediator = Mediators.asBatchMediator(producer.getMediator(type), type);
+        return new IBatchMediator() {
+            @Override
+            public Batch getBatch() {
+                return slice;
+            }
+
+            @Override
+            public Object getData() {
+                return Mediators.toArray(slice, consumerType);
+            }
+        };
+    }
+
+    private RC passSlice(Batch data, long bytes) {
+        if (!budget.acquire(stage, bytes)) {
+            logWarn("Slice of " + bytes + " bytes exceeds memory budget");
+            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+        }
+        slice = data;
+        try {
+            return consumer.execute();
+        } finally {
+            budget.release(stage, bytes);
+            slice = Batch.END_OF_STREAM;
+        }
+    }
+
+    // суррогатную пару символов не разрываем
+    private int getSliceEnd(Frame frame, int from, int to) {
+        if (consumerType == TYPE.CHAR && to - from > 1
+                && Character.isHighSurrogate(((char[]) frame.getData())[frame.getOffset() + to - 1])) {
+            return to - 1;
+        }
+        return to;
+    }
+
+    private void logWarn(String message) {
+        if (logger != null) {
+            logger.warning(message);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package timofeeva.manager;
+
+import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.Batch;
+import timofeeva.pipeline.IBatchMediator;
+import timofeeva.pipeline.Mediators;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Разветвитель конвейера: получает каждую порцию данных от producer'а один раз
+ * и раздает ее всем веткам. Компоненты timofeeva.* данные не изменяют, поэтому
+ * получают общие кадры, чужие компоненты - собственную копию.
+ */
+class FanOut implements IExecutor {
+    private static final String TRUSTED_PACKAGE_PREFIX = "timofeeva.";
+    private final List<IConsumer> consumers = new ArrayList<>();
+    private final Map<TYPE, SharedData> sharedData = new EnumMap<>(TYPE.class);
+    private final Logger logger;
+    private IProducer producer;
+
+    FanOut(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public RC execute() {
+        // новая порция - сбрасываем закешированные данные
+        for (SharedData data : sharedData.values()) {
+            data.reset();
+        }
+
+        for (IConsumer consumer : consumers) {
+            RC rc = consumer.execute();
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setConsumer(IConsumer iConsumer) {
+        if (iConsumer == null) {
+            logWarn("Consumer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        consumers.add(iConsumer);
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setProducer(IProducer iProducer) {
+        if (iProducer == null) {
+            logWarn("Producer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        producer = iProducer;
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public TYPE[] getOutputTypes() {
+        return producer.getOutputTypes();
+    }
+
+    @Override
+    public IMediator getMediator(TYPE type) {
+        return getSharedData(type).shared();
+    }
+
+    /**
+     * @param consumer - ветка, для которой создается выход разветвителя
+     * @return producer, отдающий ветке общую порцию данных или ее копию
+     */
+    IProducer port(IConsumer consumer) {
+        boolean trusted = isTrusted(consumer);
+        return new IProducer() {
+            @Override
+            public TYPE[] getOutputTypes() {
+                return FanOut.this.getOutputTypes();
+            }
+
+            @Override
+            public IMediator getMediator(TYPE type) {
+                SharedData data = getSharedData(type);
+                return trusted ? data.shared() : data::copy;
+            }
+        };
+    }
+
+    /**
+     * @return true, если компонента своя и не изменяет полученные данные
+     */
+    static boolean isTrusted(Object component) {
+        return component.getClass().getName().startsWith(TRUSTED_PACKAGE_PREFIX);
+    }
+
+    private SharedData getSharedData(TYPE type) {
+        return sharedData.computeIfAbsent(type, t -> new SharedData(Mediators.asBatchMediator(producer.getMediator(t), t), t));
+    }
+
+    private void logWarn(String message) {
+        if (logger != null) {
+            logger.warning(message);
+        }
+    }
+
+    // порция данных одного типа, запрашиваемая у producer'а не более одного раза
+    private static class SharedData {
+        private final IBatchMediator source;
+        private final TYPE type;
+        private Batch batch;
+
+        SharedData(IBatchMediator source, TYPE type) {
+            this.source = source;
+            this.type = type;
+        }
+
+        void reset() {
+            batch = null;
+        }
+
+        Batch get() {
+            if (batch == null) {
+                batch = source.getBatch();
+            }
+            return batch;
+        }
+
+        // старые компоненты получают массив точной длины, который могут изменять
+        Object copy() {
+            return Mediators.toArray(get(), type);
+        }
+
+        IBatchMediator shared() {
+            return new IBatchMediator() {
+                @Override
+                public Batch getBatch() {
+                    return get();
+                }
+
+                @Override
+                public Object getData() {
+                    return copy();
+                }
+            };
+        }
+    }
+}
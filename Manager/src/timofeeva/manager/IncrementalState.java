@@ -0,0 +1,128 @@
+package timofeeva.manager;
+
+import ru.spbstu.pipeline.BaseGrammar;
+import ru.spbstu.pipeline.RC;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.logging.Logger;
+
+/**
+ * Состояние инкрементальной обработки: смещение во входном файле, до которого
+ * данные уже обработаны и дописаны в выходной файл предыдущими запусками,
+ * и длины выходных файлов веток на этот момент.
+ */
+class IncrementalState {
+    private static final String INPUT_OFFSET_PARAM = "INPUT_OFFSET";
+    // необязательный параметр: в состояниях старых версий его нет
+    private static final String OUTPUT_LENGTHS_PARAM = "OUTPUT_LENGTHS";
+    private final BaseGrammar stateGrammar = new BaseGrammar(new String[]{INPUT_OFFSET_PARAM}) {
+        @Override
+        public String delimiter() {
+            return super.delimiter();
+        }
+    };
+    private final String filePath;
+    private final Logger logger;
+    private long inputOffset;
+    private long[] outputLengths;
+
+    IncrementalState(String filePath, Logger logger) {
+        this.filePath = filePath;
+        this.logger = logger;
+    }
+
+    long getInputOffset() {
+        return inputOffset;
+    }
+
+    /**
+     * @return длины выходных файлов веток или null, если состояние их не содержит
+     */
+    long[] getOutputLengths() {
+        return outputLengths;
+    }
+
+    RC load() {
+        inputOffset = 0;
+        outputLengths = null;
+        if (!new File(filePath).exists()) {
+            // первый запуск - обрабатываем файл с начала
+            return RC.CODE_SUCCESS;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+            while (reader.ready()) {
+                String[] pair = reader.readLine().split(stateGrammar.delimiter());
+                if (pair.length == 2) {
+                    params.put(pair[0], pair[1]);
+                }
+            }
+        } catch (IOException e) {
+            logWarning("Error while reading incremental state " + filePath);
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
+
+        if (!params.containsKey(INPUT_OFFSET_PARAM)) {
+            logWarning("incremental state doesnt contain " + INPUT_OFFSET_PARAM);
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        try {
+            inputOffset = Long.parseLong(params.get(INPUT_OFFSET_PARAM));
+            if (params.containsKey(OUTPUT_LENGTHS_PARAM)) {
+                String[] lengths = params.get(OUTPUT_LENGTHS_PARAM).split(Manager.BRANCH_DELIMITER);
+                outputLengths = new long[lengths.length];
+                for (int i = 0; i < lengths.length; i++) {
+                    outputLengths[i] = Long.parseLong(lengths[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            logWarning("Wrong incremental state value type, expected long");
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
+
+        return inputOffset >= 0 ? RC.CODE_SUCCESS : RC.CODE_CONFIG_SEMANTIC_ERROR;
+    }
+
+    /**
+     * Смещение и длины выходов сохраняются вместе, поэтому следующий запуск может
+     * обрезать выходы до этих длин и отбросить вывод прерванного запуска
+     *
+     * @param offset        - смещение во входном файле
+     * @param outputLengths - длины выходных файлов веток
+     */
+    RC save(long offset, long[] outputLengths) {
+        StringJoiner lengths = new StringJoiner(Manager.BRANCH_DELIMITER);
+        for (long length : outputLengths) {
+            lengths.add(String.valueOf(length));
+        }
+        // пишем во временный файл и подменяем им старый, чтобы не оставить битое состояние при падении
+        Path statePath = Paths.get(filePath).toAbsolutePath();
+        Path tmpPath = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmpPath, INPUT_OFFSET_PARAM + stateGrammar.delimiter() + offset + System.lineSeparator()
+                    + OUTPUT_LENGTHS_PARAM + stateGrammar.delimiter() + lengths);
+            Files.move(tmpPath, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logWarning("Error while saving incremental state " + filePath);
+            return RC.CODE_FAILED_TO_WRITE;
+        }
+        inputOffset = offset;
+        this.outputLengths = outputLengths.clone();
+
+        return RC.CODE_SUCCESS;
+    }
+
+    private void logWarning(String message) {
+        if (logger != null) {
+            logger.warning(message);
+        }
+    }
+}
@@ -1,14 +1,42 @@
 package timofeeva.manager;
 
 import ru.spbstu.pipeline.RC;
+import timofeeva.pipeline.CancellationToken;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 public class Main {
+    private static final String COMPILE_ARG = "--compile";
+    // файл лога можно переопределить, чтобы воркеры шардов не писали в один файл
+    static final String LOG_FILE_PROPERTY = "timofeeva.log.file";
+    private static final String DEFAULT_LOG_FILE = "sessionLogs.txt";
+    // код завершения процесса при ошибке - RC_EXIT_CODE_BASE + номер RC
+    private static final int RC_EXIT_CODE_BASE = 64;
+    // код завершения остановленного конвейера - STOP_EXIT_CODE_BASE + номер причины остановки,
+    // RC у остановки тот же, что у ошибки чтения
+    private static final int STOP_EXIT_CODE_BASE = 80;
     private static Logger logger = Logger.getLogger("Logger");
+    private static Handler logHandler;
+    // сколько ждать при завершении процесса, пока остановленный конвейер закроет файлы
+    private static final long SHUTDOWN_WAIT_MS = 5000;
+    // отпускается, когда main закрыл лог; shutdown hook ждет его, а не завершения потока main,
+    // т.к. System.exit() из main ждет завершения hook'ов
+    private static final CountDownLatch finished = new CountDownLatch(1);
+    private static volatile boolean shuttingDown;
+    private static volatile RC result;
+    private static volatile CancellationToken.StopReason stopReason;
 
     public static void main(String[] args) {
         try {
@@ -18,19 +46,82 @@ public class Main {
             return;
         }
 
-        RC exitCode = prepareArgs(args);
-        if (exitCode == RC.CODE_SUCCESS) {
-            logger.info(exitCode.name());
-        } else {
-            logger.warning(exitCode.name());
+        RC exitCode;
+        try {
+            exitCode = prepareArgs(args);
+            result = exitCode;
+            if (exitCode == RC.CODE_SUCCESS) {
+                logger.info(exitCode.name());
+            } else {
+                logger.warning(exitCode.name());
+            }
+        } finally {
+            // дописываем оставшиеся в буфере записи
+            logHandler.close();
+            finished.countDown();
+        }
+
+        // процесс уже завершается по сигналу - System.exit() заблокировался бы до конца hook'ов,
+        // код завершения тогда задает hook
+        if (exitCode != RC.CODE_SUCCESS && !shuttingDown) {
+            System.exit(toExitCode(exitCode, stopReason));
+        }
+    }
+
+    /**
+     * @return код завершения процесса Main для результата конвейера, обратный toStopReason и toResultCode
+     */
+    static int toExitCode(RC rc, CancellationToken.StopReason reason) {
+        if (rc == RC.CODE_SUCCESS) {
+            return 0;
         }
+        return reason != null ? STOP_EXIT_CODE_BASE + reason.ordinal() : RC_EXIT_CODE_BASE + rc.ordinal();
     }
 
-    // конфигурируем логгер
+    /**
+     * @return причина остановки, с которой завершился процесс Main, или null, если он не был остановлен
+     */
+    static CancellationToken.StopReason toStopReason(int exitCode) {
+        int ordinal = exitCode - STOP_EXIT_CODE_BASE;
+        if (ordinal >= 0 && ordinal < CancellationToken.StopReason.values().length) {
+            return CancellationToken.StopReason.values()[ordinal];
+        }
+        return null;
+    }
+
+    /**
+     * @return RC, с которым завершился процесс Main, или null, если процесс упал
+     */
+    static RC toResultCode(int exitCode) {
+        int ordinal = exitCode - RC_EXIT_CODE_BASE;
+        if (ordinal > 0 && ordinal < RC.values().length) {
+            return RC.values()[ordinal];
+        }
+        return null;
+    }
+
+    // конфигурируем логгер: компоненты только ставят записи в очередь, в файл и консоль их пишет отдельный поток
     private static void configureLogger() throws IOException {
-        FileHandler fileHandler = new FileHandler("sessionLogs.txt");
-        logger.addHandler(fileHandler);
+        FileHandler fileHandler = new FileHandler(System.getProperty(LOG_FILE_PROPERTY, DEFAULT_LOG_FILE));
         fileHandler.setFormatter(new SimpleFormatter());
+        logHandler = new AsyncLogHandler(fileHandler, new ConsoleHandler());
+        logger.addHandler(logHandler);
+        logger.setUseParentHandlers(false);
+        logger.setFilter(new RepeatedMessageFilter());
+    }
+
+    // JUL закрывает handler'ы своим shutdown hook'ом одновременно с нашим, поэтому при завершении
+    // по сигналу итог пишется мимо логгера: в stderr и в конец файла лога
+    private static void logOnShutdown(Level level, String message) {
+        LogRecord record = new LogRecord(level, message);
+        record.setLoggerName(logger.getName());
+        String text = new SimpleFormatter().format(record);
+        System.err.print(text);
+        try {
+            Files.writeString(Paths.get(System.getProperty(LOG_FILE_PROPERTY, DEFAULT_LOG_FILE)), text,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ignored) {
+        }
     }
 
     // проверяем аргументы
@@ -40,9 +131,29 @@ public class Main {
             return RC.CODE_INVALID_ARGUMENT;
         }
 
+        if (args[0].equals(COMPILE_ARG)) {
+            if (args.length != 3) {
+                logger.warning("Wrong args, expected " + COMPILE_ARG + " <config_src.cfg> <descriptor>");
+                return RC.CODE_INVALID_ARGUMENT;
+            }
+            return compileConfig(args[1], args[2]);
+        }
+
         return prepareManager(args[0]);
     }
 
+    // компилируем текстовый конфиг и конфиги компонент в бинарное описание конвейера
+    private static RC compileConfig(String configFilePath, String descriptorPath) {
+        Manager manager = new Manager();
+        manager.setLogger(logger);
+        RC rc = manager.setConfig(configFilePath);
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        return manager.compile(descriptorPath);
+    }
+
     // инициализируем и запускаем менеджер
     private static RC prepareManager(String configFilePath) {
         Manager manager = new Manager();
@@ -52,6 +163,38 @@ public class Main {
             return rc;
         }
 
-        return manager.start();
+        // при SIGINT/SIGTERM останавливаем конвейер и ждем, пока менеджер закроет файлы
+        Thread shutdownHook = new Thread(() -> {
+            shuttingDown = true;
+            manager.cancel();
+            boolean stopped = false;
+            try {
+                stopped = finished.await(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            if (!stopped) {
+                // файлы могут быть не закрыты - процесс завершается с кодом сигнала
+                logOnShutdown(Level.WARNING, "pipeline didnt stop in " + SHUTDOWN_WAIT_MS + " ms on shutdown");
+                return;
+            }
+            logOnShutdown(Level.WARNING, "pipeline stopped on shutdown: " + manager.getStopReason() + ", " + result);
+            if (result != RC.CODE_SUCCESS) {
+                // иначе JVM завершилась бы с кодом сигнала (130/143), а не с кодом остановки, как без сигнала;
+                // лог уже закрыт в main, остальные hook'и не нужны
+                Runtime.getRuntime().halt(toExitCode(result, manager.getStopReason()));
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try {
+            rc = manager.start();
+            stopReason = manager.getStopReason();
+            return rc;
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // процесс уже завершается, hook запущен
+            }
+        }
     }
 }
@@ -1,14 +1,30 @@
 package timofeeva.manager;
 
 import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.CancellationToken;
+import timofeeva.pipeline.CopyAllocations;
+import timofeeva.pipeline.IResolvedStep;
 
 import java.io.*;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 public class Manager implements IConfigurable {
-    private static enum Parameters {
+    static enum Parameters {
         EXECUTOR_NAME,
         READER_NAME,
         WRITER_NAME,
@@ -23,6 +39,51 @@ public class Manager implements IConfigurable {
         }
     }
 
+    // ветка конвейера: свои executor'ы и writer со своим выходным файлом
+    private static class Branch {
+        private final List<IExecutor> executors = new LinkedList<>();
+        private IWriter writer;
+        private String outputFilePath;
+        private FileOutputStream fileOutputStream;
+    }
+
+    // разделитель веток в параметрах EXECUTOR_*, WRITER_* и OUTPUT_FILE_PATH
+    static final String BRANCH_DELIMITER = ";";
+    // разделитель компонент внутри ветки
+    private static final String COMPONENT_DELIMITER = ",";
+
+    // необязательные параметры, в грамматику не входят
+    static enum OptionalParameters {
+        INCREMENTAL_STATE_PATH,
+        MEMORY_BUDGET,
+        OUTPUT_MODE,
+        FSYNC_INTERVAL_MS,
+        WARMUP_BYTES,
+        PIPELINE_TIMEOUT_MS,
+        STAGE_TIMEOUT_MS,
+        SHARDS,
+        SHARD_JVM_OPTIONS,
+        // участок входа воркера, задается координатором шардов
+        INPUT_OFFSET,
+        INPUT_LENGTH
+    }
+
+    // конструкторы компонент, общие для всех менеджеров процесса
+    private static final Map<String, Constructor<?>> componentConstructors = new ConcurrentHashMap<>();
+
+    private static final long DEFAULT_FSYNC_INTERVAL_MS = 1000;
+    // как часто сторожевой поток проверяет сроки
+    private static final long WATCHDOG_INTERVAL_MS = 10;
+    // сколько ждать, пока остановленный конвейер дойдет до границы порции
+    private static final long STOP_GRACE_MS = 1000;
+
+    // больше данных для прогрева JIT не нужно, а вход прогрева пишется на диск
+    private static final long MAX_WARMUP_BYTES = 64L * 1024 * 1024;
+    private static final int WARMUP_BLOCK_SIZE = 64 * 1024;
+
+    // параметры конфигов компонент, задающие размер их буферов
+    private static final String[] BUFFER_SIZE_PARAMS = {"BUFFER_SIZE", "BUFFSIZE"};
+
     private Logger logger;
     private Map<String, String> params;
     private BaseGrammar managerGrammar = new BaseGrammar(Parameters.all()) {
@@ -32,16 +93,34 @@ public class Manager implements IConfigurable {
         }
     };
     private IReader reader;
-    private final List<IExecutor> executors = new LinkedList<>();
-    private IWriter writer;
+    private final List<Branch> branches = new ArrayList<>();
+    private IncrementalState incrementalState;
+    private MemoryBudget memoryBudget;
+    private final CancellationToken cancellationToken = new CancellationToken();
+    // менеджер прогрева, пока он работает: остановка передается и ему
+    private volatile Manager warmUpManager;
+    private long pipelineTimeoutMillis;
+    // время прогрева засчитывается в срок PIPELINE_TIMEOUT_MS
+    private long warmUpNanos;
+    private StageWatch stageWatch;
+    private final Map<IPipelineStep, String> componentConfigPaths = new IdentityHashMap<>();
+    // компоненты в порядке создания, в нем же они хранятся в описании конвейера
+    private final List<IPipelineStep> components = new ArrayList<>();
+    private PipelineDescriptor descriptor;
+    private final Map<IPipelineStep, PipelineDescriptor.Component> resolvedComponents = new IdentityHashMap<>();
     FileInputStream fileInputStream = null;
-    FileOutputStream fileOutputStream = null;
 
     @Override
     public RC setConfig(String s) {
         try {
-            params = getParams(s);
-            RC rc = checkParams();
+            byte[] content = Files.readAllBytes(Paths.get(s));
+            RC rc;
+            if (PipelineDescriptor.isDescriptor(content)) {
+                rc = loadDescriptor(content);
+            } else {
+                params = getParams(content);
+                rc = checkParams();
+            }
             if (rc != RC.CODE_SUCCESS) {
                 return rc;
             }
@@ -49,6 +128,28 @@ public class Manager implements IConfigurable {
             return RC.CODE_CONFIG_GRAMMAR_ERROR;
         }
 
+        return resolveComponentClasses();
+    }
+
+    /**
+     * Собирает конвейер по текстовому конфигу, проверяя компоненты и их связывание,
+     * и сохраняет результат в бинарное описание, которое можно передавать вместо config_src.cfg
+     *
+     * @param descriptorPath - путь к файлу описания
+     */
+    RC compile(String descriptorPath) {
+        RC rc = prepareComponents();
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        try {
+            PipelineDescriptor.of(params, components, componentConfigPaths).write(descriptorPath);
+        } catch (IOException e) {
+            logWarning("Error while writing pipeline descriptor " + descriptorPath);
+            return RC.CODE_FAILED_TO_WRITE;
+        }
+
         return RC.CODE_SUCCESS;
     }
 
@@ -56,7 +157,42 @@ public class Manager implements IConfigurable {
         this.logger = logger;
     }
 
-    RC start() {
+    /**
+     * Останавливает запущенный конвейер на границе порции, может вызываться из любого потока
+     */
+    public void cancel() {
+        cancellationToken.cancel(CancellationToken.StopReason.CANCELLED);
+        Manager warmUp = warmUpManager;
+        if (warmUp != null) {
+            warmUp.cancel();
+        }
+    }
+
+    /**
+     * @return причина остановки конвейера или null, если он не останавливался
+     */
+    public CancellationToken.StopReason getStopReason() {
+        return cancellationToken.getReason();
+    }
+
+    public RC start() {
+        int shards = getShardCount();
+        if (shards < 0) {
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
+        if (shards > 1) {
+            return new ShardCoordinator(params, managerGrammar.delimiter(), cancellationToken, logger).run(shards);
+        }
+
+        if (params.containsKey(OptionalParameters.WARMUP_BYTES.name())) {
+            long warmUpStart = System.nanoTime();
+            RC rc = warmUp();
+            warmUpNanos = System.nanoTime() - warmUpStart;
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+        }
+
         RC resultCode = prepareComponents();
         if (resultCode != RC.CODE_SUCCESS) {
             return resultCode;
@@ -67,42 +203,180 @@ public class Manager implements IConfigurable {
             return resultCode;
         }
 
+        long inputOffset = 0;
         try {
-            resultCode = reader.execute();
+            resultCode = runPipeline();
+            if (resultCode == RC.CODE_SUCCESS && incrementalState != null) {
+                inputOffset = fileInputStream.getChannel().position();
+            }
         } catch (Exception e) {
-            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+            resultCode = RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
         } finally {
+            if (memoryBudget != null) {
+                logInfo(memoryBudget.report());
+            }
             if (fileInputStream != null) {
                 try {
                     fileInputStream.close();
                 } catch (IOException ignored) {
                 }
             }
-            if (fileOutputStream != null) {
+        }
+
+        // в режимах FSYNC и DIRECT закрытие сбрасывает вывод на диск, его ошибка - ошибка записи
+        RC closeCode = closeOutputs();
+        if (resultCode == RC.CODE_SUCCESS) {
+            resultCode = closeCode;
+        }
+        if (resultCode == RC.CODE_SUCCESS && incrementalState != null) {
+            // запоминаем, докуда дочитал reader и сколько выведено, чтобы следующий запуск начал с этого места
+            try {
+                resultCode = incrementalState.save(inputOffset, getOutputLengths());
+            } catch (IOException e) {
+                logWarning("Error while reading output file sizes");
+                resultCode = RC.CODE_FAILED_TO_WRITE;
+            }
+        }
+
+        return resultCode;
+    }
+
+    private long[] getOutputLengths() throws IOException {
+        long[] lengths = new long[branches.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = Files.size(Paths.get(branches.get(i).outputFilePath));
+        }
+
+        return lengths;
+    }
+
+    private RC closeOutputs() {
+        RC rc = RC.CODE_SUCCESS;
+        for (Branch branch : branches) {
+            if (branch.fileOutputStream != null) {
                 try {
-                    fileOutputStream.close();
-                } catch (IOException ignored) {
+                    branch.fileOutputStream.close();
+                } catch (IOException e) {
+                    logWarning("Error while closing " + branch.outputFilePath + ": " + e.getMessage());
+                    rc = RC.CODE_FAILED_TO_WRITE;
                 }
             }
         }
 
-        return resultCode;
+        return rc;
     }
 
-    private Map<String, String> getParams(String filePath) throws IOException {
-        Map<String, String> params = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            while (reader.ready()) {
-                String[] pair = reader.readLine().split(managerGrammar.delimiter());
-                if (pair.length == 2) {
-                    params.put(pair[0], pair[1]);
+    /**
+     * @return число шардов, 1 - если конвейер нельзя делить на шарды, -1 - если параметр задан неверно
+     */
+    private int getShardCount() {
+        int shards;
+        try {
+            shards = Integer.parseInt(params.getOrDefault(OptionalParameters.SHARDS.name(), "1"));
+        } catch (NumberFormatException e) {
+            logWarning("Wrong " + OptionalParameters.SHARDS.name() + " value type, expected int");
+            return -1;
+        }
+        if (shards <= 1) {
+            return 1;
+        }
+
+        if (params.containsKey(OptionalParameters.INCREMENTAL_STATE_PATH.name())) {
+            logWarning(OptionalParameters.SHARDS.name() + " is ignored in incremental mode, running single shard");
+            return 1;
+        }
+        // компонента с состоянием между порциями на участке входа дала бы другой результат
+        for (String className : getComponentClassNames()) {
+            if (!ShardCoordinator.isShardable(className)) {
+                logWarning("component " + className + " may keep state between chunks, running single shard");
+                return 1;
+            }
+        }
+
+        return shards;
+    }
+
+    // конвейер работает в отдельном потоке, а текущий следит за сроками и остановкой
+    private RC runPipeline() throws ExecutionException {
+        FutureTask<RC> pipeline = new FutureTask<>(() -> {
+            CancellationToken.bind(cancellationToken);
+            CopyAllocations.bind(memoryBudget != null ? memoryBudget.getCopies() : null);
+            try {
+                return reader.execute();
+            } finally {
+                CancellationToken.bind(null);
+                CopyAllocations.bind(null);
+            }
+        });
+        Thread worker = new Thread(pipeline, "pipeline-worker");
+        // зависшую чужую компоненту дождаться нельзя, ее поток не должен мешать завершению процесса
+        worker.setDaemon(true);
+        worker.start();
+
+        long start = System.nanoTime() - warmUpNanos;
+        while (!cancellationToken.isCancelled()) {
+            try {
+                RC rc = pipeline.get(WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (!cancellationToken.isCancelled()) {
+                    return rc;
                 }
+            } catch (TimeoutException e) {
+                checkDeadlines(start);
+            } catch (InterruptedException e) {
+                cancel();
+            }
+        }
+
+        // компоненты timofeeva.* остановятся на границе порции, прерывание будит чужие, ждущие в sleep/wait
+        worker.interrupt();
+        try {
+            pipeline.get(STOP_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            logWarning("pipeline worker didnt stop in " + STOP_GRACE_MS + " ms, abandoning it");
+        } catch (ExecutionException ignored) {
+        }
+        logWarning("pipeline stopped: " + cancellationToken.getReason().name());
+
+        return CancellationToken.STOPPED;
+    }
+
+    private void checkDeadlines(long start) {
+        long now = System.nanoTime();
+        if (pipelineTimeoutMillis > 0 && now - start > pipelineTimeoutMillis * 1_000_000) {
+            cancellationToken.cancel(CancellationToken.StopReason.PIPELINE_TIMEOUT);
+            return;
+        }
+        String overdueStage = stageWatch == null ? null : stageWatch.findOverdue(now);
+        if (overdueStage != null && cancellationToken.cancel(CancellationToken.StopReason.STAGE_TIMEOUT)) {
+            logWarning("stage " + overdueStage + " exceeded " + OptionalParameters.STAGE_TIMEOUT_MS.name());
+        }
+    }
+
+    private Map<String, String> getParams(byte[] content) {
+        Map<String, String> params = new HashMap<>();
+        for (String line : new String(content, StandardCharsets.UTF_8).split("\\R")) {
+            String[] pair = line.split(managerGrammar.delimiter());
+            if (pair.length == 2) {
+                params.put(pair[0], pair[1]);
             }
         }
 
         return params;
     }
 
+    // параметры описания уже проверены при компиляции, проверяем только актуальность конфигов компонент
+    private RC loadDescriptor(byte[] content) throws IOException {
+        descriptor = PipelineDescriptor.read(content);
+        String staleConfig = descriptor.findStaleConfig();
+        if (staleConfig != null) {
+            logWarning("config " + staleConfig + " was changed after pipeline compilation");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        params = descriptor.getParams();
+
+        return RC.CODE_SUCCESS;
+    }
+
     private RC checkParams() {
         for (int i = 0; i < managerGrammar.numberTokens(); i++) {
             String tokenName = managerGrammar.token(i);
@@ -112,41 +386,174 @@ public class Manager implements IConfigurable {
             }
         }
 
+        // у всех параметров веток должно быть одинаковое число веток
+        int branchesCount = params.get(Parameters.WRITER_NAME.name()).split(BRANCH_DELIMITER).length;
+        for (Parameters branchParam : new Parameters[]{Parameters.EXECUTOR_NAME, Parameters.EXECUTOR_CONFIG_PATH,
+                Parameters.WRITER_CONFIG_PATH, Parameters.OUTPUT_FILE_PATH}) {
+            if (params.get(branchParam.name()).split(BRANCH_DELIMITER).length != branchesCount) {
+                logWarning("param " + branchParam.name() + " must contain " + branchesCount + " branches");
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+            }
+        }
+
         return RC.CODE_SUCCESS;
     }
 
     private RC prepareComponents() {
+        if (params.containsKey(OptionalParameters.MEMORY_BUDGET.name())) {
+            try {
+                memoryBudget = new MemoryBudget(Long.parseLong(params.get(OptionalParameters.MEMORY_BUDGET.name())));
+            } catch (NumberFormatException e) {
+                logWarning("Wrong " + OptionalParameters.MEMORY_BUDGET.name() + " value type, expected long");
+                return RC.CODE_CONFIG_GRAMMAR_ERROR;
+            }
+        }
+
+        try {
+            pipelineTimeoutMillis = Long.parseLong(params.getOrDefault(OptionalParameters.PIPELINE_TIMEOUT_MS.name(), "0"));
+            if (params.containsKey(OptionalParameters.STAGE_TIMEOUT_MS.name())) {
+                stageWatch = new StageWatch(Long.parseLong(params.get(OptionalParameters.STAGE_TIMEOUT_MS.name())));
+            }
+        } catch (NumberFormatException e) {
+            logWarning("Wrong " + OptionalParameters.PIPELINE_TIMEOUT_MS.name() + " or " + OptionalParameters.STAGE_TIMEOUT_MS.name() + " value type, expected long");
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
+
         return prepareReader();
     }
 
     private RC prepareStreams() {
         try {
-            fileInputStream = new FileInputStream(params.get(Parameters.INPUT_FILE_PATH.name()));
+            if (params.containsKey(OptionalParameters.INPUT_OFFSET.name())) {
+                fileInputStream = new RangeInputStream(params.get(Parameters.INPUT_FILE_PATH.name()),
+                        Long.parseLong(params.get(OptionalParameters.INPUT_OFFSET.name())),
+                        Long.parseLong(params.get(OptionalParameters.INPUT_LENGTH.name())));
+            } else {
+                fileInputStream = new FileInputStream(params.get(Parameters.INPUT_FILE_PATH.name()));
+            }
+        } catch (NumberFormatException e) {
+            logWarning("Wrong " + OptionalParameters.INPUT_OFFSET.name() + " or " + OptionalParameters.INPUT_LENGTH.name() + " value type, expected long");
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
         } catch (Exception e) {
             logWarning("file with name " + params.get(Parameters.INPUT_FILE_PATH.name()) + "doesnt exist");
             return RC.CODE_INVALID_INPUT_STREAM;
         }
 
-        try {
-            fileOutputStream = new FileOutputStream(params.get(Parameters.OUTPUT_FILE_PATH.name()));
-        } catch (Exception e) {
-            logWarning("file with name " + params.get(Parameters.OUTPUT_FILE_PATH.name()) + "doesnt exist");
-            return RC.CODE_INVALID_OUTPUT_STREAM;
+        boolean append = false;
+        if (params.containsKey(OptionalParameters.INCREMENTAL_STATE_PATH.name())) {
+            RC rc = prepareIncrementalState();
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+            append = incrementalState.getInputOffset() > 0;
         }
 
         RC rc = reader.setInputStream(fileInputStream);
         if (rc != RC.CODE_SUCCESS) {
             return rc;
         }
-        rc = writer.setOutputStream(fileOutputStream);
 
-        return rc;
+        OutputMode outputMode;
+        long fsyncIntervalMillis;
+        try {
+            outputMode = OutputMode.valueOf(params.getOrDefault(OptionalParameters.OUTPUT_MODE.name(), OutputMode.BUFFERED.name()));
+            fsyncIntervalMillis = Long.parseLong(params.getOrDefault(OptionalParameters.FSYNC_INTERVAL_MS.name(),
+                    String.valueOf(DEFAULT_FSYNC_INTERVAL_MS)));
+        } catch (IllegalArgumentException e) {
+            logWarning("Wrong " + OptionalParameters.OUTPUT_MODE.name() + " or " + OptionalParameters.FSYNC_INTERVAL_MS.name() + " value");
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
+
+        for (Branch branch : branches) {
+            try {
+                branch.fileOutputStream = outputMode.open(branch.outputFilePath, append, fsyncIntervalMillis, logger);
+            } catch (Exception e) {
+                logWarning("file with name " + branch.outputFilePath + "doesnt exist");
+                return RC.CODE_INVALID_OUTPUT_STREAM;
+            }
+
+            rc = branch.writer.setOutputStream(branch.fileOutputStream);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    // продолжаем обработку с места, где остановился предыдущий запуск
+    private RC prepareIncrementalState() {
+        // состояние компонент между запусками не сохраняется: на границе запуска они сбрасывают остаток,
+        // поэтому дописанный вход обрабатывается так же, как целиком, только компонентами без состояния между порциями
+        for (String className : getComponentClassNames()) {
+            if (!ShardCoordinator.isShardable(className)) {
+                logWarning("component " + className + " may keep state between chunks, it cant be used with "
+                        + OptionalParameters.INCREMENTAL_STATE_PATH.name());
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+            }
+        }
+
+        incrementalState = new IncrementalState(params.get(OptionalParameters.INCREMENTAL_STATE_PATH.name()), logger);
+        RC rc = incrementalState.load();
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        try {
+            long inputSize = fileInputStream.getChannel().size();
+            if (incrementalState.getInputOffset() > inputSize) {
+                // входной файл обрезали или подменили - начинаем заново и перезаписываем вывод
+                rc = resetIncrementalState("input file is shorter than saved offset");
+            } else if (incrementalState.getInputOffset() > 0) {
+                rc = restoreOutputLengths();
+            }
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+            fileInputStream.getChannel().position(incrementalState.getInputOffset());
+        } catch (IOException e) {
+            logWarning("Error while seeking input file");
+            return RC.CODE_INVALID_INPUT_STREAM;
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    // прерванный или неудачный запуск мог дописать часть вывода - обрезаем выходы до сохраненных длин
+    private RC restoreOutputLengths() throws IOException {
+        long[] outputLengths = incrementalState.getOutputLengths();
+        if (outputLengths == null) {
+            logWarning("incremental state doesnt contain output lengths, output of an interrupted run cant be discarded");
+            return RC.CODE_SUCCESS;
+        }
+        if (outputLengths.length != branches.size()) {
+            return resetIncrementalState("branches count doesnt match incremental state");
+        }
+
+        for (int i = 0; i < outputLengths.length; i++) {
+            Path outputPath = Paths.get(branches.get(i).outputFilePath);
+            if (!Files.exists(outputPath) || Files.size(outputPath) < outputLengths[i]) {
+                return resetIncrementalState("output file " + outputPath + " is shorter than saved length");
+            }
+        }
+        for (int i = 0; i < outputLengths.length; i++) {
+            try (FileChannel output = FileChannel.open(Paths.get(branches.get(i).outputFilePath), StandardOpenOption.WRITE)) {
+                output.truncate(outputLengths[i]);
+            }
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    private RC resetIncrementalState(String reason) {
+        logWarning(reason + ", processing input from the beginning");
+        return incrementalState.save(0, new long[branches.size()]);
     }
 
     private RC prepareReader() {
         try {
             reader = (IReader) getObjectWithClassName(params.get(Parameters.READER_NAME.name()));
-            RC rc = reader.setConfig(params.get(Parameters.READER_CONFIG_PATH.name()));
+            RC rc = configure(reader, params.get(Parameters.READER_CONFIG_PATH.name()));
             if (rc != RC.CODE_SUCCESS) {
                 return rc;
             }
@@ -154,88 +561,390 @@ public class Manager implements IConfigurable {
             logWarning("Error while timofeeva.reader initialization");
             return RC.CODE_CONFIG_SEMANTIC_ERROR;
         }
-        return prepareExecutors();
+        return prepareBranches();
     }
 
-    private RC prepareExecutors() {
-        String[] executorsConfigPaths = params.get(Parameters.EXECUTOR_CONFIG_PATH.name()).split(",");
-        String[] executorClassNames = params.get(Parameters.EXECUTOR_NAME.name()).split(",");
+    private RC prepareBranches() {
+        String[] executorsConfigPaths = params.get(Parameters.EXECUTOR_CONFIG_PATH.name()).split(BRANCH_DELIMITER);
+        String[] executorClassNames = params.get(Parameters.EXECUTOR_NAME.name()).split(BRANCH_DELIMITER);
+        String[] writerConfigPaths = params.get(Parameters.WRITER_CONFIG_PATH.name()).split(BRANCH_DELIMITER);
+        String[] writerClassNames = params.get(Parameters.WRITER_NAME.name()).split(BRANCH_DELIMITER);
+        String[] outputFilePaths = params.get(Parameters.OUTPUT_FILE_PATH.name()).split(BRANCH_DELIMITER);
+        for (int i = 0; i < writerClassNames.length; i++) {
+            Branch branch = new Branch();
+            branch.outputFilePath = outputFilePaths[i];
+            RC rc = prepareExecutors(branch, executorClassNames[i], executorsConfigPaths[i]);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+            rc = prepareWriter(branch, writerClassNames[i], writerConfigPaths[i]);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+            branches.add(branch);
+        }
+
+        return linkComponents();
+    }
+
+    private RC prepareExecutors(Branch branch, String classNames, String configPaths) {
+        String[] executorsConfigPaths = configPaths.split(COMPONENT_DELIMITER);
+        String[] executorClassNames = classNames.split(COMPONENT_DELIMITER);
+        if (executorsConfigPaths.length != executorClassNames.length) {
+            logWarning("executors count doesnt match executors configs count");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
         for (int i = 0; i < executorClassNames.length; i++) {
             try {
                 IExecutor executor = (IExecutor) getObjectWithClassName(executorClassNames[i]);
-                RC rc = executor.setConfig(executorsConfigPaths[i]);
+                RC rc = configure(executor, executorsConfigPaths[i]);
                 if (rc != RC.CODE_SUCCESS) {
                     return rc;
                 }
-                executors.add(executor);
+                branch.executors.add(executor);
             } catch (Exception e) {
                 logWarning("Error while executors initialization");
                 return RC.CODE_CONFIG_SEMANTIC_ERROR;
             }
         }
 
-        return prepareWriter();
+        return RC.CODE_SUCCESS;
     }
 
-    private RC prepareWriter() {
+    private RC prepareWriter(Branch branch, String className, String configPath) {
         try {
-            writer = (IWriter) getObjectWithClassName(params.get(Parameters.WRITER_NAME.name()));
-            writer.setConfig(params.get(Parameters.WRITER_CONFIG_PATH.name()));
+            branch.writer = (IWriter) getObjectWithClassName(className);
+            return configure(branch.writer, configPath);
         } catch (Exception e) {
             logWarning("Error while timofeeva.writer initialization");
             return RC.CODE_CONFIG_SEMANTIC_ERROR;
         }
+    }
 
-        return linkComponents();
+    // компонента из описания конвейера получает разобранные при компиляции параметры, не читая свой конфиг
+    private RC configure(IPipelineStep component, String configPath) {
+        componentConfigPaths.put(component, configPath);
+        PipelineDescriptor.Component resolved = descriptor == null ? null
+                : descriptor.getResolvedComponent(components.size(), component);
+        components.add(component);
+        if (resolved != null) {
+            resolvedComponents.put(component, resolved);
+            return ((IResolvedStep) component).setResolvedConfig(resolved.getResolvedConfig());
+        }
+
+        return component.setConfig(configPath);
     }
 
     private RC linkComponents() {
-        return linkReaderExecutor();
-    }
+        if (memoryBudget != null && addBudgetStage(reader) < 0) {
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
 
-    private RC linkReaderExecutor() {
-        RC rc = reader.setConsumer(executors.get(0));
-        if (rc != RC.CODE_SUCCESS) {
-            return rc;
+        if (branches.size() == 1) {
+            Branch branch = branches.get(0);
+            RC rc = link(reader, branch.executors.get(0));
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+            return linkBranch(branch);
         }
-        rc = executors.get(0).setProducer(reader);
+
+        // несколько веток - reader читает вход один раз, разветвитель раздает порции всем веткам
+        FanOut fanOut = new FanOut(logger);
+        RC rc = linkDirectly(reader, fanOut);
         if (rc != RC.CODE_SUCCESS) {
             return rc;
         }
+        for (Branch branch : branches) {
+            IExecutor head = branch.executors.get(0);
+            List<IExecutor> steps = createSteps(head);
+            if (steps == null) {
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+            }
+            IExecutor branchInput = steps.isEmpty() ? head : steps.get(0);
+            rc = fanOut.setConsumer(branchInput);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+            rc = branchInput.setProducer(fanOut.port(head));
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+            if (!steps.isEmpty()) {
+                rc = linkSteps(steps, head);
+                if (rc != RC.CODE_SUCCESS) {
+                    return rc;
+                }
+            }
+            rc = linkBranch(branch);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+        }
 
-        return linkExecutorsWithWriter();
+        return RC.CODE_SUCCESS;
     }
 
-    private RC linkExecutorsWithWriter() {
+    // связываем executor'ы ветки между собой и последний из них с writer'ом
+    private RC linkBranch(Branch branch) {
         RC rc;
-        for (int i = 0; i < executors.size() - 1; i++) {
-            IExecutor firstExecutor = executors.get(i);
-            IExecutor secondExecutor = executors.get(i + 1);
-            rc = firstExecutor.setConsumer(secondExecutor);
+        for (int i = 0; i < branch.executors.size() - 1; i++) {
+            rc = link(branch.executors.get(i), branch.executors.get(i + 1));
             if (rc != RC.CODE_SUCCESS) {
                 return rc;
             }
-            rc = secondExecutor.setProducer(firstExecutor);
+        }
+
+        return link(branch.executors.get(branch.executors.size() - 1), branch.writer);
+    }
+
+    // при заданном бюджете памяти или сроке компоненты между компонентами ставятся прозрачные ступени
+    private <P extends IPipelineStep & IProducer, C extends IPipelineStep & IConsumer> RC link(P producer, C consumer) {
+        List<IExecutor> steps = createSteps(consumer);
+        if (steps == null) {
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        if (steps.isEmpty()) {
+            return linkDirectly(producer, consumer);
+        }
+
+        RC rc = linkDirectly(producer, steps.get(0));
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        return linkSteps(steps, consumer);
+    }
+
+    /**
+     * @return ступени перед компонентой в порядке передачи данных или null, если ее буферы не помещаются в бюджет
+     */
+    private List<IExecutor> createSteps(IPipelineStep consumer) {
+        List<IExecutor> steps = new ArrayList<>();
+        if (memoryBudget != null) {
+            BudgetGate gate = createBudgetGate(consumer);
+            if (gate == null) {
+                return null;
+            }
+            steps.add(gate);
+        }
+        // чужие компоненты токен не проверяют и событий JFR не пишут - это делает ступень перед ними
+        if (stageWatch != null || !FanOut.isTrusted(consumer)) {
+            steps.add(new StageGuard(stageWatch, cancellationToken, consumer.getClass().getName(), logger));
+        }
+
+        return steps;
+    }
+
+    // связываем ступени между собой и последнюю с компонентой, у первой producer уже задан
+    private <C extends IPipelineStep & IConsumer> RC linkSteps(List<IExecutor> steps, C consumer) {
+        RC rc;
+        for (int i = 0; i < steps.size() - 1; i++) {
+            rc = linkDirectly(steps.get(i), steps.get(i + 1));
             if (rc != RC.CODE_SUCCESS) {
                 return rc;
             }
         }
-        IExecutor lastExecutor = executors.get(executors.size() - 1);
-        rc = writer.setProducer(lastExecutor);
+
+        return linkDirectly(steps.get(steps.size() - 1), consumer);
+    }
+
+    private <P extends IPipelineStep & IProducer, C extends IPipelineStep & IConsumer> RC linkDirectly(P producer, C consumer) {
+        RC rc = producer.setConsumer(consumer);
         if (rc != RC.CODE_SUCCESS) {
             return rc;
         }
-        rc = lastExecutor.setConsumer(writer);
-        if (rc != RC.CODE_SUCCESS) {
-            return rc;
+
+        // тип, согласованный при компиляции, не согласовываем заново
+        PipelineDescriptor.Component resolved = resolvedComponents.get(consumer);
+        if (resolved != null && resolved.getProducerType() != null) {
+            return ((IResolvedStep) consumer).setProducer(producer, resolved.getProducerType());
         }
 
-        return RC.CODE_SUCCESS;
+        return consumer.setProducer(producer);
+    }
+
+    private BudgetGate createBudgetGate(IPipelineStep component) {
+        int stage = addBudgetStage(component);
+        return stage < 0 ? null : new BudgetGate(memoryBudget, stage, logger);
+    }
+
+    private int addBudgetStage(IPipelineStep component) {
+        long bufferSize = component instanceof IResolvedStep ? ((IResolvedStep) component).getBufferSize()
+                : getBufferSize(componentConfigPaths.get(component));
+        int stage = memoryBudget.addStage(component.getClass().getName(), bufferSize);
+        if (stage < 0) {
+            logWarning("buffers of " + component.getClass().getName() + " dont leave room for slices in memory budget");
+        }
+
+        return stage;
+    }
+
+    // размер буфера чужой компоненты по ее конфигу, 0 - если компонента его не указывает
+    private long getBufferSize(String configPath) {
+        try {
+            Map<String, String> componentParams = getParams(Files.readAllBytes(Paths.get(configPath)));
+            for (String bufferSizeParam : BUFFER_SIZE_PARAMS) {
+                if (componentParams.containsKey(bufferSizeParam)) {
+                    return Long.parseLong(componentParams.get(bufferSizeParam).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+
+        return 0;
     }
 
     private Object getObjectWithClassName(String className) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
-        Class clazz = Class.forName(className);
-        return clazz.getConstructor(Logger.class).newInstance(logger);
+        return getComponentConstructor(className).newInstance(logger);
+    }
+
+    private static Constructor<?> getComponentConstructor(String className) throws ClassNotFoundException, NoSuchMethodException {
+        Constructor<?> constructor = componentConstructors.get(className);
+        if (constructor == null) {
+            constructor = Class.forName(className).getConstructor(Logger.class);
+            componentConstructors.put(className, constructor);
+        }
+
+        return constructor;
+    }
+
+    // загружаем классы компонент сразу при конфигурировании: ошибки находятся до запуска,
+    // а следующие менеджеры этого процесса берут конструкторы из кеша
+    private RC resolveComponentClasses() {
+        for (String className : getComponentClassNames()) {
+            try {
+                getComponentConstructor(className);
+            } catch (Exception e) {
+                logWarning("class " + className + " cant be used as pipeline component");
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+            }
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    private List<String> getComponentClassNames() {
+        List<String> classNames = new ArrayList<>();
+        classNames.add(params.get(Parameters.READER_NAME.name()));
+        for (Parameters param : new Parameters[]{Parameters.EXECUTOR_NAME, Parameters.WRITER_NAME}) {
+            for (String branchClassNames : params.get(param.name()).split(BRANCH_DELIMITER)) {
+                classNames.addAll(Arrays.asList(branchClassNames.split(COMPONENT_DELIMITER)));
+            }
+        }
+
+        return classNames;
+    }
+
+    // прогоняем копию конвейера на синтетических данных, чтобы классы загрузились,
+    // а JIT скомпилировал горячие участки до обработки настоящего входа.
+    // Ошибка прогрева конвейер не останавливает, ошибкой считаются только неверный WARMUP_BYTES и остановка
+    private RC warmUp() {
+        long start = System.nanoTime();
+        long warmUpBytes;
+        try {
+            warmUpBytes = Long.parseLong(params.get(OptionalParameters.WARMUP_BYTES.name()).trim());
+        } catch (NumberFormatException e) {
+            logWarning("Wrong " + OptionalParameters.WARMUP_BYTES.name() + " value type, expected long");
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
+        if (warmUpBytes < 0) {
+            logWarning(OptionalParameters.WARMUP_BYTES.name() + " must not be negative");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        if (warmUpBytes > MAX_WARMUP_BYTES) {
+            logWarning(OptionalParameters.WARMUP_BYTES.name() + " is capped at " + MAX_WARMUP_BYTES + " bytes");
+            warmUpBytes = MAX_WARMUP_BYTES;
+        }
+
+        Path warmUpDir = null;
+        try {
+            warmUpDir = Files.createTempDirectory("pipeline-warmup");
+            Path inputPath = warmUpDir.resolve("input");
+            // вход пишется блоками, без массива на весь объем
+            Random random = new Random(warmUpBytes);
+            byte[] block = new byte[WARMUP_BLOCK_SIZE];
+            try (OutputStream input = Files.newOutputStream(inputPath)) {
+                for (long written = 0; written < warmUpBytes; written += block.length) {
+                    random.nextBytes(block);
+                    input.write(block, 0, (int) Math.min(block.length, warmUpBytes - written));
+                }
+            }
+
+            String[] outputPaths = params.get(Parameters.OUTPUT_FILE_PATH.name()).split(BRANCH_DELIMITER);
+            for (int i = 0; i < outputPaths.length; i++) {
+                outputPaths[i] = warmUpDir.resolve("output" + i).toString();
+            }
+
+            Manager warmUp = new Manager();
+            warmUp.setLogger(logger);
+            warmUp.params = new HashMap<>(params);
+            warmUp.params.remove(OptionalParameters.WARMUP_BYTES.name());
+            warmUp.params.remove(OptionalParameters.INCREMENTAL_STATE_PATH.name());
+            // прогрев идет в этом же процессе, одним шардом
+            warmUp.params.remove(OptionalParameters.SHARDS.name());
+            warmUp.params.remove(OptionalParameters.SHARD_JVM_OPTIONS.name());
+            warmUp.params.put(Parameters.INPUT_FILE_PATH.name(), inputPath.toString());
+            warmUp.params.put(Parameters.OUTPUT_FILE_PATH.name(), String.join(BRANCH_DELIMITER, outputPaths));
+            // прогреву остается срок конвейера за вычетом подготовки данных
+            long timeoutMillis = 0;
+            try {
+                timeoutMillis = Long.parseLong(params.getOrDefault(OptionalParameters.PIPELINE_TIMEOUT_MS.name(), "0"));
+            } catch (NumberFormatException ignored) {
+                // неверное значение отклонит prepareComponents настоящего запуска
+            }
+            if (timeoutMillis > 0) {
+                long remainingMillis = timeoutMillis - (System.nanoTime() - start) / 1_000_000;
+                if (remainingMillis <= 0) {
+                    cancellationToken.cancel(CancellationToken.StopReason.PIPELINE_TIMEOUT);
+                    logWarning("pipeline stopped: " + cancellationToken.getReason().name());
+                    return CancellationToken.STOPPED;
+                }
+                warmUp.params.put(OptionalParameters.PIPELINE_TIMEOUT_MS.name(), String.valueOf(remainingMillis));
+            }
+
+            warmUpManager = warmUp;
+            // остановка могла прийти до того, как менеджер прогрева стал виден cancel()
+            if (cancellationToken.isCancelled()) {
+                warmUp.cancel();
+            }
+            RC rc = warmUp.start();
+            CancellationToken.StopReason reason = warmUp.getStopReason();
+            if (reason == CancellationToken.StopReason.CANCELLED || reason == CancellationToken.StopReason.PIPELINE_TIMEOUT) {
+                // прогрев остановлен отменой или истек срок всего конвейера - конвейер не запускается, причина та же
+                cancellationToken.cancel(reason);
+                return CancellationToken.STOPPED;
+            }
+            if (rc != RC.CODE_SUCCESS) {
+                logWarning("warm-up failed with " + rc.name() + (reason != null ? " (" + reason.name() + ")" : "")
+                        + ", running pipeline without it");
+            }
+
+            return RC.CODE_SUCCESS;
+        } catch (IOException e) {
+            logWarning("Error while preparing warm-up data, running pipeline without it");
+            return RC.CODE_SUCCESS;
+        } finally {
+            warmUpManager = null;
+            deleteDirectory(warmUpDir);
+        }
+    }
+
+    private void deleteDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            logWarning("Error while deleting " + directory);
+        }
+    }
+
+    private void logInfo(String message) {
+        if (logger != null) {
+            logger.info(message);
+        }
     }
 
     private void logWarning(String message) {
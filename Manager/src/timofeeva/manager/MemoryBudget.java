@@ -0,0 +1,98 @@
+package timofeeva.manager;
+
+import timofeeva.pipeline.CopyAllocations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Бюджет памяти конвейера: учитывает собственные буферы компонент и порции данных,
+ * переданные им на обработку, и определяет, какой величины порцию можно передать
+ * следующей компоненте, не выходя за бюджет. Копии и преобразования порций внутри компонент
+ * бюджет не ограничивает, они только считаются в CopyAllocations и выводятся в отчете отдельно.
+ */
+class MemoryBudget {
+    // наименьшая порция, которую должна получать каждая компонента: два символа - суррогатная пара
+    static final long MIN_SLICE = 2 * Character.BYTES;
+    private final long limit;
+    private final List<String> stageNames = new ArrayList<>();
+    private final List<Long> stageUsage = new ArrayList<>();
+    private final List<Long> stagePeaks = new ArrayList<>();
+    private final CopyAllocations copies = new CopyAllocations();
+    private long reserved;// собственные буферы компонент
+    private long used;// буферы + порции в обработке
+    private long peak;
+
+    MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @param name       - имя компоненты для отчета
+     * @param bufferSize - объем собственных буферов компоненты
+     * @return номер компоненты или -1, если после ее буферов в бюджете не остается
+     * места хотя бы на одну порцию MIN_SLICE для каждой компоненты
+     */
+    int addStage(String name, long bufferSize) {
+        if (bufferSize < 0 || reserved + bufferSize + (stageNames.size() + 1) * MIN_SLICE > limit) {
+            return -1;
+        }
+        reserved += bufferSize;
+        stageNames.add(name);
+        stageUsage.add(0L);
+        stagePeaks.add(0L);
+        acquire(stageNames.size() - 1, bufferSize);
+
+        return stageNames.size() - 1;
+    }
+
+    /**
+     * @return сколько байт можно передать компоненте одной порцией
+     */
+    long getSliceLimit() {
+        // порции делят остаток бюджета поровну между компонентами (доля не меньше MIN_SLICE - это проверяет addStage),
+        // но не больше, чем свободно сейчас: вышестоящие компоненты еще держат свои порции
+        long share = (limit - reserved) / Math.max(1, stageNames.size());
+
+        return Math.min(share, limit - used);
+    }
+
+    /**
+     * @return false, если порция не помещается в бюджет, тогда она не учитывается
+     */
+    boolean acquire(int stage, long bytes) {
+        if (used + bytes > limit) {
+            return false;
+        }
+        long stageUsed = stageUsage.get(stage) + bytes;
+        stageUsage.set(stage, stageUsed);
+        stagePeaks.set(stage, Math.max(stagePeaks.get(stage), stageUsed));
+        used += bytes;
+        peak = Math.max(peak, used);
+
+        return true;
+    }
+
+    void release(int stage, long bytes) {
+        stageUsage.set(stage, stageUsage.get(stage) - bytes);
+        used -= bytes;
+    }
+
+    /**
+     * @return счетчик копий, который менеджер привязывает к потоку конвейера
+     */
+    CopyAllocations getCopies() {
+        return copies;
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder("memory budget " + limit + " bytes, peak " + peak + " bytes");
+        for (int i = 0; i < stageNames.size(); i++) {
+            report.append(", ").append(i).append(':').append(stageNames.get(i)).append(" peak ").append(stagePeaks.get(i));
+        }
+        report.append("; outside budget: ").append(copies.getCount()).append(" copies and conversions, ")
+                .append(copies.getBytes()).append(" bytes, largest ").append(copies.getLargest()).append(" bytes");
+
+        return report.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package timofeeva.manager;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Режимы вывода в OUTPUT_FILE_PATH: writer получает от менеджера поток,
+ * который сам обеспечивает нужную надежность записи.
+ */
+enum OutputMode {
+    // запись через page cache без force(), как раньше
+    BUFFERED,
+    // force() не реже, чем раз в заданный интервал, и при закрытии
+    FSYNC,
+    // запись выровненными блоками в обход page cache (O_DIRECT), хвост и force() при закрытии
+    DIRECT;
+
+    FileOutputStream open(String filePath, boolean append, long fsyncIntervalMillis, Logger logger) throws IOException {
+        switch (this) {
+            case FSYNC:
+                return new SyncingFileOutputStream(filePath, append, fsyncIntervalMillis);
+            case DIRECT:
+                try {
+                    return new DirectFileOutputStream(filePath, append);
+                } catch (IOException | UnsupportedOperationException e) {
+                    if (logger != null) {
+                        logger.warning("direct output is not supported for " + filePath + ", falling back to " + FSYNC.name());
+                    }
+                    return new SyncingFileOutputStream(filePath, append, fsyncIntervalMillis);
+                }
+            default:
+                return new FileOutputStream(filePath, append);
+        }
+    }
+
+    private static class SyncingFileOutputStream extends FileOutputStream {
+        private final long intervalNanos;
+        private long lastForceNanos = System.nanoTime();
+        private boolean closed;
+
+        SyncingFileOutputStream(String filePath, boolean append, long intervalMillis) throws IOException {
+            super(filePath, append);
+            this.intervalNanos = intervalMillis * 1_000_000;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            super.write(b);
+            forceIfDue();
+        }
+
+        // FileOutputStream.write(byte[]) пишет напрямую, минуя write(byte[], int, int)
+        @Override
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            forceIfDue();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                getChannel().force(true);
+            } finally {
+                super.close();
+            }
+        }
+
+        private void forceIfDue() throws IOException {
+            long now = System.nanoTime();
+            if (now - lastForceNanos >= intervalNanos) {
+                getChannel().force(false);
+                lastForceNanos = now;
+            }
+        }
+    }
+
+    private static class DirectFileOutputStream extends FileOutputStream {
+        private static final int BUFFER_BLOCKS = 256;
+        private final FileChannel directChannel;
+        private final ByteBuffer buffer;
+        private long position;
+        private boolean closed;
+
+        DirectFileOutputStream(String filePath, boolean append) throws IOException {
+            super(filePath, append);
+            Path path = Paths.get(filePath);
+            int blockSize = (int) Files.getFileStore(path).getBlockSize();
+            position = super.getChannel().size();
+            if (position % blockSize != 0) {
+                super.close();
+                throw new IOException("Output size " + position + " is not aligned to block size " + blockSize);
+            }
+            try {
+                directChannel = FileChannel.open(path, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT);
+            } catch (IOException | UnsupportedOperationException e) {
+                super.close();
+                throw e;
+            }
+            buffer = ByteBuffer.allocateDirect(blockSize * (BUFFER_BLOCKS + 1)).alignedSlice(blockSize);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            buffer.put((byte) b);
+        }
+
+        // FileOutputStream.write(byte[]) пишет напрямую в конец файла, мимо буфера
+        @Override
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    writeBuffer();
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // неполный последний блок через O_DIRECT не записать - пишем его обычным образом
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += super.getChannel().write(buffer, position);
+                }
+                super.getChannel().force(true);
+            } finally {
+                directChannel.close();
+                super.close();
+            }
+        }
+
+        /**
+         * Данные до закрытия лежат в буфере и в позиции directChannel, которую канал потока не видит,
+         * поэтому запись через канал испортила бы вывод
+         */
+        @Override
+        public FileChannel getChannel() {
+            throw new UnsupportedOperationException("channel of direct output stream is not available");
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += directChannel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package timofeeva.manager;
+
+import ru.spbstu.pipeline.IPipelineStep;
+import ru.spbstu.pipeline.TYPE;
+import timofeeva.pipeline.IResolvedStep;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Скомпилированное описание конвейера: проверенные параметры менеджера и компоненты
+ * в порядке создания - разобранные параметры и согласованные типы компонент IResolvedStep,
+ * а также размеры/даты изменения их конфигов, по которым при загрузке проверяется,
+ * что описание не устарело.
+ */
+class PipelineDescriptor {
+    private static final int MAGIC = 0x4A4C5044; // "JLPD"
+    private static final int VERSION = 2;
+    // magic + version + crc32
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+
+    // компонента конвейера и конфиг, на который она ссылается
+    static class Component {
+        private final String className;
+        private final String configPath;
+        private final long length;
+        private final long lastModified;
+        // null - компонента не IResolvedStep и читает свой конфиг сама
+        private final Map<String, String> resolvedConfig;
+        // null - тип не согласовывался
+        private final TYPE producerType;
+
+        Component(String className, String configPath, long length, long lastModified,
+                  Map<String, String> resolvedConfig, TYPE producerType) {
+            this.className = className;
+            this.configPath = configPath;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.resolvedConfig = resolvedConfig;
+            this.producerType = producerType;
+        }
+
+        Map<String, String> getResolvedConfig() {
+            return resolvedConfig;
+        }
+
+        TYPE getProducerType() {
+            return producerType;
+        }
+    }
+
+    private final Map<String, String> params;
+    private final List<Component> components;
+
+    private PipelineDescriptor(Map<String, String> params, List<Component> components) {
+        this.params = params;
+        this.components = components;
+    }
+
+    /**
+     * @param params      - проверенные параметры менеджера
+     * @param components  - сконфигурированные и связанные компоненты в порядке создания
+     * @param configPaths - пути к конфигам компонент
+     */
+    static PipelineDescriptor of(Map<String, String> params, List<IPipelineStep> components,
+                                 Map<IPipelineStep, String> configPaths) throws IOException {
+        List<Component> resolvedComponents = new ArrayList<>();
+        for (IPipelineStep component : components) {
+            Path path = Paths.get(configPaths.get(component));
+            Map<String, String> resolvedConfig = null;
+            TYPE producerType = null;
+            if (component instanceof IResolvedStep) {
+                resolvedConfig = ((IResolvedStep) component).getResolvedConfig();
+                producerType = ((IResolvedStep) component).getProducerType();
+            }
+            resolvedComponents.add(new Component(component.getClass().getName(), path.toString(),
+                    Files.size(path), Files.getLastModifiedTime(path).toMillis(), resolvedConfig, producerType));
+        }
+
+        return new PipelineDescriptor(new TreeMap<>(params), resolvedComponents);
+    }
+
+    static boolean isDescriptor(byte[] content) {
+        return content.length >= HEADER_SIZE && ByteBuffer.wrap(content).getInt() == MAGIC;
+    }
+
+    static PipelineDescriptor read(byte[] content) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(content, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Unsupported pipeline descriptor version");
+        }
+        long crc = header.getLong();
+        CRC32 actualCrc = new CRC32();
+        actualCrc.update(content, HEADER_SIZE, content.length - HEADER_SIZE);
+        if (crc != actualCrc.getValue()) {
+            throw new IOException("Pipeline descriptor is corrupted");
+        }
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(content, HEADER_SIZE, content.length - HEADER_SIZE));
+        Map<String, String> params = readMap(in);
+        int componentsCount = in.readInt();
+        List<Component> components = new ArrayList<>();
+        for (int i = 0; i < componentsCount; i++) {
+            String className = in.readUTF();
+            String configPath = in.readUTF();
+            long length = in.readLong();
+            long lastModified = in.readLong();
+            Map<String, String> resolvedConfig = in.readBoolean() ? readMap(in) : null;
+            TYPE producerType = in.readBoolean() ? TYPE.valueOf(in.readUTF()) : null;
+            components.add(new Component(className, configPath, length, lastModified, resolvedConfig, producerType));
+        }
+
+        return new PipelineDescriptor(params, components);
+    }
+
+    void write(String filePath) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            writeMap(out, params);
+            out.writeInt(components.size());
+            for (Component component : components) {
+                out.writeUTF(component.className);
+                out.writeUTF(component.configPath);
+                out.writeLong(component.length);
+                out.writeLong(component.lastModified);
+                out.writeBoolean(component.resolvedConfig != null);
+                if (component.resolvedConfig != null) {
+                    writeMap(out, component.resolvedConfig);
+                }
+                out.writeBoolean(component.producerType != null);
+                if (component.producerType != null) {
+                    out.writeUTF(component.producerType.name());
+                }
+            }
+        }
+
+        byte[] payloadBytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+        ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + payloadBytes.length);
+        content.putInt(MAGIC).putInt(VERSION).putLong(crc.getValue()).put(payloadBytes);
+        Files.write(Paths.get(filePath), content.array());
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+
+        return map;
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    Map<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * @param index     - номер компоненты в порядке создания
+     * @param component - созданная компонента
+     * @return описание компоненты, которой можно передать разобранные параметры, или null
+     */
+    Component getResolvedComponent(int index, IPipelineStep component) {
+        if (index >= components.size() || !(component instanceof IResolvedStep)) {
+            return null;
+        }
+        Component resolved = components.get(index);
+        if (resolved.resolvedConfig == null || !resolved.className.equals(component.getClass().getName())) {
+            return null;
+        }
+
+        return resolved;
+    }
+
+    /**
+     * @return конфиг компоненты, измененный после компиляции описания, или null, если таких нет
+     */
+    String findStaleConfig() {
+        for (Component component : components) {
+            File file = new File(component.configPath);
+            if (file.length() != component.length || file.lastModified() != component.lastModified) {
+                return component.configPath;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,64 @@
+package timofeeva.manager;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Поток, отдающий reader'у только участок входного файла: от offset длиной length байт.
+ * Так воркер обрабатывает свой шард, не зная о нем.
+ */
+class RangeInputStream extends FileInputStream {
+    private long remaining;
+
+    RangeInputStream(String filePath, long offset, long length) throws IOException {
+        super(filePath);
+        try {
+            getChannel().position(offset);
+        } catch (IOException e) {
+            super.close();
+            throw e;
+        }
+        remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = super.read();
+        if (b >= 0) {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return len == 0 ? 0 : -1;
+        }
+        int count = super.read(b, off, (int) Math.min(len, remaining));
+        if (count > 0) {
+            remaining -= count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(super.available(), remaining);
+    }
+}
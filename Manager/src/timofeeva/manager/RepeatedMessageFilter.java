@@ -0,0 +1,82 @@
+package timofeeva.manager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Filter;
+import java.util.logging.LogRecord;
+
+/**
+ * Ограничивает частоту повторяющихся сообщений (например, предупреждений на каждую порцию данных):
+ * в каждом интервале пропускается не больше заданного числа записей с одним и тем же шаблоном,
+ * число подавленных записей дописывается к первой записи следующего интервала.
+ * Число отслеживаемых шаблонов ограничено: истекшие интервалы удаляются, а если места все равно нет,
+ * записи с новым шаблоном пропускаются без учета.
+ */
+class RepeatedMessageFilter implements Filter {
+    private static final int DEFAULT_LIMIT = 5;
+    private static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    private static final int MAX_WINDOWS = 1024;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private final int limit;
+    private final long intervalMillis;
+
+    // счетчики записей с одним шаблоном в текущем интервале
+    private static class Window {
+        private long startMillis;
+        private int passed;
+        private int suppressed;
+    }
+
+    RepeatedMessageFilter() {
+        this(DEFAULT_LIMIT, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    RepeatedMessageFilter(int limit, long intervalMillis) {
+        this.limit = limit;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public boolean isLoggable(LogRecord record) {
+        String key = record.getLoggerName() + ':' + record.getMessage();
+        long now = record.getMillis();
+        Window window = windows.get(key);
+        if (window == null) {
+            if (windows.size() >= MAX_WINDOWS) {
+                evictExpired(now);
+                if (windows.size() >= MAX_WINDOWS) {
+                    return true;
+                }
+            }
+            window = windows.computeIfAbsent(key, k -> new Window());
+        }
+        int suppressed;
+        synchronized (window) {
+            if (now - window.startMillis >= intervalMillis) {
+                window.startMillis = now;
+                window.passed = 0;
+            }
+            if (window.passed >= limit) {
+                window.suppressed++;
+                return false;
+            }
+            window.passed++;
+            suppressed = window.suppressed;
+            window.suppressed = 0;
+        }
+
+        if (suppressed > 0) {
+            record.setMessage(record.getMessage() + " (" + suppressed + " similar messages suppressed)");
+        }
+        return true;
+    }
+
+    // счетчик подавленных записей истекшего интервала теряется вместе с ним
+    private void evictExpired(long now) {
+        windows.values().removeIf(window -> {
+            synchronized (window) {
+                return now - window.startMillis >= intervalMillis;
+            }
+        });
+    }
+}
@@ -0,0 +1,302 @@
+package timofeeva.manager;
+
+import ru.spbstu.pipeline.RC;
+import timofeeva.pipeline.CancellationToken;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Координатор шардов: делит вход на участки, запускает на каждом конвейер в отдельной JVM
+ * и склеивает выходы шардов по порядку. Упавший воркер перезапускается, остальные шарды не переделываются;
+ * при ошибке конвейера в одном из шардов остальные воркеры останавливаются.
+ */
+class ShardCoordinator {
+    // компоненты, вывод которых для участка входа не зависит от остальных участков,
+    // на них же ограничен инкрементальный режим менеджера
+    private static final Set<String> SHARDABLE_COMPONENTS = Set.of(
+            "timofeeva.reader.Reader", "timofeeva.executor.Executor", "timofeeva.writer.Writer");
+    // границы шардов выравниваются на страницу, заодно не разрывая пары байт для SHORT
+    private static final long SHARD_ALIGNMENT = 4096;
+    // запуск воркера и один повтор после падения
+    private static final int MAX_ATTEMPTS = 2;
+    private static final long POLL_INTERVAL_MS = 10;
+    // сколько ждать остановленный воркер, прежде чем завершить его принудительно
+    private static final long WORKER_STOP_MS = 2000;
+
+    private final Map<String, String> params;
+    private final String delimiter;
+    private final CancellationToken cancellationToken;
+    private final Logger logger;
+    private final List<Process> processes = new ArrayList<>();
+
+    // участок входа и файлы воркера, который его обрабатывает
+    private static class Shard {
+        private int index;
+        private long offset;
+        private long length;
+        private Path configPath;
+        private Path logPath;
+        private Path consolePath;
+        private String[] outputPaths;
+        private Process process;
+        private int attempts;
+    }
+
+    ShardCoordinator(Map<String, String> params, String delimiter, CancellationToken cancellationToken, Logger logger) {
+        this.params = params;
+        this.delimiter = delimiter;
+        this.cancellationToken = cancellationToken;
+        this.logger = logger;
+    }
+
+    static boolean isShardable(String className) {
+        return SHARDABLE_COMPONENTS.contains(className);
+    }
+
+    RC run(int shardCount) {
+        long deadline;
+        try {
+            long timeoutMillis = Long.parseLong(params.getOrDefault(Manager.OptionalParameters.PIPELINE_TIMEOUT_MS.name(), "0"));
+            deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        } catch (NumberFormatException e) {
+            logWarning("Wrong " + Manager.OptionalParameters.PIPELINE_TIMEOUT_MS.name() + " value type, expected long");
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
+
+        Path shardDir = null;
+        try {
+            // каталог воркеров рядом с выходом: на той же файловой системе склейка не копирует данные между устройствами
+            Path outputPath = Paths.get(params.get(Manager.Parameters.OUTPUT_FILE_PATH.name())
+                    .split(Manager.BRANCH_DELIMITER)[0]).toAbsolutePath();
+            shardDir = Files.createTempDirectory(outputPath.getParent(), ".pipeline-shards");
+            List<Shard> shards = createShards(shardDir, shardCount);
+            for (Shard shard : shards) {
+                startWorker(shard);
+            }
+            RC rc = awaitWorkers(shards, deadline);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
+
+            return concatenateOutputs(shards);
+        } catch (IOException e) {
+            logWarning("Error while running shards: " + e.getMessage());
+            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+        } catch (NumberFormatException e) {
+            logWarning("Wrong " + Manager.OptionalParameters.MEMORY_BUDGET.name() + " value type, expected long");
+            return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        } finally {
+            stopWorkers();
+            deleteDirectory(shardDir);
+        }
+    }
+
+    private List<Shard> createShards(Path shardDir, int shardCount) throws IOException {
+        String inputPath = params.get(Manager.Parameters.INPUT_FILE_PATH.name());
+        long inputSize = Files.size(Paths.get(inputPath));
+        long shardSize = (inputSize + shardCount - 1) / shardCount;
+        shardSize = Math.max(SHARD_ALIGNMENT, (shardSize + SHARD_ALIGNMENT - 1) / SHARD_ALIGNMENT * SHARD_ALIGNMENT);
+        String[] outputPaths = params.get(Manager.Parameters.OUTPUT_FILE_PATH.name()).split(Manager.BRANCH_DELIMITER);
+
+        List<Shard> shards = new ArrayList<>();
+        for (long offset = 0; offset < inputSize || shards.isEmpty(); offset += shardSize) {
+            Shard shard = new Shard();
+            shard.index = shards.size();
+            shard.offset = offset;
+            shard.length = Math.min(shardSize, inputSize - offset);
+            shard.configPath = shardDir.resolve("shard" + shard.index + ".cfg");
+            shard.logPath = shardDir.resolve("shard" + shard.index + ".log");
+            shard.consolePath = shardDir.resolve("shard" + shard.index + ".out");
+            shard.outputPaths = new String[outputPaths.length];
+            for (int i = 0; i < outputPaths.length; i++) {
+                shard.outputPaths[i] = shardDir.resolve("shard" + shard.index + ".output" + i).toString();
+            }
+            shards.add(shard);
+        }
+        // воркеры работают одновременно и делят бюджет памяти поровну
+        String memoryBudget = params.get(Manager.OptionalParameters.MEMORY_BUDGET.name());
+        String shardMemoryBudget = memoryBudget == null ? null
+                : String.valueOf(Long.parseLong(memoryBudget.trim()) / shards.size());
+        for (Shard shard : shards) {
+            writeShardConfig(shard, shardMemoryBudget);
+        }
+        logInfo("input " + inputPath + " split into " + shards.size() + " shards of " + shardSize + " bytes");
+
+        return shards;
+    }
+
+    // конфиг воркера - исходный конфиг со своим участком входа и своими выходными файлами
+    private void writeShardConfig(Shard shard, String memoryBudget) throws IOException {
+        Map<String, String> shardParams = new LinkedHashMap<>(params);
+        shardParams.remove(Manager.OptionalParameters.SHARDS.name());
+        shardParams.remove(Manager.OptionalParameters.SHARD_JVM_OPTIONS.name());
+        // прогрев каждой JVM занял бы больше, чем он экономит на коротком участке
+        shardParams.remove(Manager.OptionalParameters.WARMUP_BYTES.name());
+        // общий срок конвейера соблюдает координатор, перезапущенный воркер не получает срок заново
+        shardParams.remove(Manager.OptionalParameters.PIPELINE_TIMEOUT_MS.name());
+        if (memoryBudget != null) {
+            shardParams.put(Manager.OptionalParameters.MEMORY_BUDGET.name(), memoryBudget);
+        }
+        shardParams.put(Manager.OptionalParameters.INPUT_OFFSET.name(), String.valueOf(shard.offset));
+        shardParams.put(Manager.OptionalParameters.INPUT_LENGTH.name(), String.valueOf(shard.length));
+        shardParams.put(Manager.Parameters.OUTPUT_FILE_PATH.name(), String.join(Manager.BRANCH_DELIMITER, shard.outputPaths));
+
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> param : shardParams.entrySet()) {
+            content.append(param.getKey()).append(delimiter).append(param.getValue()).append(System.lineSeparator());
+        }
+        Files.write(shard.configPath, content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void startWorker(Shard shard) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String jvmOptions = params.get(Manager.OptionalParameters.SHARD_JVM_OPTIONS.name());
+        if (jvmOptions != null && !jvmOptions.isBlank()) {
+            command.addAll(Arrays.asList(jvmOptions.trim().split("\\s+")));
+        }
+        command.add("-D" + Main.LOG_FILE_PROPERTY + "=" + shard.logPath);
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), Main.class.getName(), shard.configPath.toString()));
+
+        // рабочий каталог тот же, что у координатора: пути в конфигах относительные
+        shard.process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(shard.consolePath.toFile()).start();
+        shard.attempts++;
+        processes.add(shard.process);
+    }
+
+    // воркеры опрашиваются вместе: упавший перезапускается сразу, при ошибке конвейера остальные останавливаются
+    private RC awaitWorkers(List<Shard> shards, long deadline) throws IOException {
+        List<Shard> running = new LinkedList<>(shards);
+        while (!running.isEmpty()) {
+            if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+                cancellationToken.cancel(CancellationToken.StopReason.PIPELINE_TIMEOUT);
+            }
+            if (cancellationToken.isCancelled()) {
+                logWarning("pipeline stopped: " + cancellationToken.getReason().name());
+                return CancellationToken.STOPPED;
+            }
+
+            for (Iterator<Shard> iterator = running.iterator(); iterator.hasNext(); ) {
+                Shard shard = iterator.next();
+                if (shard.process.isAlive()) {
+                    continue;
+                }
+                int exitCode = shard.process.exitValue();
+                if (exitCode == 0) {
+                    iterator.remove();
+                    continue;
+                }
+                CancellationToken.StopReason stopReason = Main.toStopReason(exitCode);
+                if (stopReason != null) {
+                    // воркер остановлен по своему сроку - останавливаем весь конвейер с той же причиной
+                    cancellationToken.cancel(stopReason);
+                    logWarning("shard " + shard.index + " stopped: " + stopReason.name());
+                    return CancellationToken.STOPPED;
+                }
+                RC rc = Main.toResultCode(exitCode);
+                logWarning("shard " + shard.index + " worker exited with code " + exitCode + ": " + readConsole(shard));
+                // ошибка конвейера повторится и при перезапуске, перезапускаем только упавшие JVM
+                if (rc != null || shard.attempts >= MAX_ATTEMPTS) {
+                    return rc != null ? rc : RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+                }
+                logInfo("restarting shard " + shard.index);
+                startWorker(shard);
+            }
+
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                cancellationToken.cancel(CancellationToken.StopReason.CANCELLED);
+            }
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    // оставшиеся воркеры останавливаются штатно (их хук завершает конвейер), зависшие - принудительно
+    private void stopWorkers() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        long deadline = System.currentTimeMillis() + WORKER_STOP_MS;
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    // выходы шардов копируются в итоговые файлы средствами ОС, без чтения в память процесса
+    private RC concatenateOutputs(List<Shard> shards) {
+        String[] outputPaths = params.get(Manager.Parameters.OUTPUT_FILE_PATH.name()).split(Manager.BRANCH_DELIMITER);
+        boolean force = !OutputMode.BUFFERED.name().equals(
+                params.getOrDefault(Manager.OptionalParameters.OUTPUT_MODE.name(), OutputMode.BUFFERED.name()));
+        for (int i = 0; i < outputPaths.length; i++) {
+            try (FileChannel output = FileChannel.open(Paths.get(outputPaths[i]), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Shard shard : shards) {
+                    try (FileChannel shardOutput = FileChannel.open(Paths.get(shard.outputPaths[i]), StandardOpenOption.READ)) {
+                        long size = shardOutput.size();
+                        for (long position = 0; position < size; ) {
+                            position += shardOutput.transferTo(position, size - position, output);
+                        }
+                    }
+                }
+                if (force) {
+                    output.force(true);
+                }
+            } catch (IOException e) {
+                logWarning("Error while writing " + outputPaths[i]);
+                return RC.CODE_FAILED_TO_WRITE;
+            }
+        }
+
+        return RC.CODE_SUCCESS;
+    }
+
+    private String readConsole(Shard shard) {
+        try {
+            return new String(Files.readAllBytes(shard.consolePath), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private void deleteDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            logWarning("Error while deleting " + directory);
+        }
+    }
+
+    private void logInfo(String message) {
+        if (logger != null) {
+            logger.info(message);
+        }
+    }
+
+    private void logWarning(String message) {
+        if (logger != null) {
+            logger.warning(message);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package timofeeva.manager;
+
+import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.Batch;
+import timofeeva.pipeline.CancellationToken;
+import timofeeva.pipeline.IBatchMediator;
+import timofeeva.pipeline.StageExecuteEvent;
+
+import java.util.logging.Logger;
+
+/**
+ * Прозрачная ступень перед компонентой: отмечает в StageWatch время обработки ею порции,
+ * пишет для нее событие JFR и не передает порции остановленному конвейеру, даже если сама
+ * компонента токен не проверяет.
+ * StageWatch может быть не задан, если срок обработки порции не ограничен.
+ */
+class StageGuard implements IExecutor {
+    private final StageWatch watch;
+    private final CancellationToken token;
+    private final String stage;
+    private final Logger logger;
+    private IProducer producer;
+    private IConsumer consumer;
+    private IMediator producerMediator;
+    private TYPE consumerType;
+    private long chunkIndex;
+
+    StageGuard(StageWatch watch, CancellationToken token, String stage, Logger logger) {
+        this.watch = watch;
+        this.token = token;
+        this.stage = stage;
+        this.logger = logger;
+    }
+
+    @Override
+    public RC execute() {
+        if (token.isCancelled()) {
+            return CancellationToken.STOPPED;
+        }
+
+        chunkIndex++;
+        StageExecuteEvent event = new StageExecuteEvent();
+        event.begin();
+        if (watch != null) {
+            watch.enter(stage);
+        }
+        try {
+            return consumer.execute();
+        } finally {
+            if (watch != null) {
+                watch.exit();
+            }
+            // объем порции узнаем, только если событие записывается
+            event.finish(stage, chunkIndex, consumerType, event.isEnabled() ? getChunkBytes() : -1);
+        }
+    }
+
+    @Override
+    public RC setConsumer(IConsumer iConsumer) {
+        if (iConsumer == null) {
+            logWarn("Consumer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        consumer = iConsumer;
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setProducer(IProducer iProducer) {
+        if (iProducer == null) {
+            logWarn("Producer is null");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        producer = iProducer;
+
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public TYPE[] getOutputTypes() {
+        return producer.getOutputTypes();
+    }
+
+    @Override
+    public IMediator getMediator(TYPE type) {
+        consumerType = type;
+        producerMediator = producer.getMediator(type);
+        return producerMediator;
+    }
+
+    // у mediator'а без кадров данные не запрашиваем: чужой producer может отдавать их только один раз
+    private long getChunkBytes() {
+        if (!(producerMediator instanceof IBatchMediator)) {
+            return -1;
+        }
+        Batch batch = ((IBatchMediator) producerMediator).getBatch();
+
+        return batch.getLength() * (consumerType == TYPE.BYTE ? Byte.BYTES : Character.BYTES);
+    }
+
+    private void logWarn(String message) {
+        if (logger != null) {
+            logger.warning(message);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package timofeeva.manager;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Учет компонент, обрабатывающих порцию в данный момент. Компоненты вызывают друг друга
+ * вложенно, поэтому управление находится у последней вошедшей; сторожевой поток менеджера
+ * проверяет, как долго она не передает порцию дальше и не возвращает управление.
+ */
+class StageWatch {
+    private final long timeoutNanos;
+    private final Deque<String> stages = new ArrayDeque<>();
+    private long since;// когда текущая компонента получила управление
+
+    StageWatch(long timeoutMillis) {
+        this.timeoutNanos = timeoutMillis * 1_000_000;
+    }
+
+    synchronized void enter(String stage) {
+        stages.push(stage);
+        since = System.nanoTime();
+    }
+
+    synchronized void exit() {
+        stages.pop();
+        since = System.nanoTime();
+    }
+
+    /**
+     * @return имя компоненты, превысившей срок, или null
+     */
+    synchronized String findOverdue(long now) {
+        if (!stages.isEmpty() && now - since > timeoutNanos) {
+            return stages.peek();
+        }
+        return null;
+    }
+}
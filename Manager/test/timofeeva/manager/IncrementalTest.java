@@ -0,0 +1,125 @@
+package timofeeva.manager;
+
+import ru.spbstu.pipeline.RC;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Проверка инкрементального режима: несколько запусков на дописываемом входе дают тот же выход,
+ * что один запуск на входе целиком, а компоненты с возможным состоянием между порциями не допускаются.
+ * Запускается из каталога Manager (конфиги компонент берутся из config/1 и config/4), при ошибке завершается с кодом 1.
+ */
+public class IncrementalTest {
+    private static final Logger logger = Logger.getLogger(IncrementalTest.class.getName());
+
+    public static void main(String[] args) throws IOException {
+        logger.setUseParentHandlers(false);
+        boolean failed = false;
+        failed |= !checkAppendedRuns(new int[]{7001, 13333, 9666});
+        // части короче буфера Executor'а и не кратные ему
+        failed |= !checkAppendedRuns(new int[]{3, 17, 1, 4096, 29});
+        failed |= !checkForeignComponentRejected();
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean checkAppendedRuns(int[] parts) throws IOException {
+        Path dir = Files.createTempDirectory("incremental-test");
+        try {
+            byte[] input = new byte[Arrays.stream(parts).sum()];
+            new Random(parts.length).nextBytes(input);
+
+            Path incrementalInput = dir.resolve("incremental.in");
+            Path incrementalOutput = dir.resolve("incremental.out");
+            Path incrementalConfig = writeConfig(dir.resolve("incremental.cfg"), incrementalInput, incrementalOutput,
+                    "config/1", "timofeeva.executor.Executor,timofeeva.executor.Executor",
+                    "config/1/executor1.cfg,config/1/executor2.cfg", dir.resolve("incremental.state"));
+            Files.write(incrementalInput, new byte[0]);
+            int position = 0;
+            for (int part : parts) {
+                Files.write(incrementalInput, Arrays.copyOfRange(input, position, position + part), StandardOpenOption.APPEND);
+                position += part;
+                RC rc = run(incrementalConfig);
+                if (rc != RC.CODE_SUCCESS) {
+                    return check(parts.length + " appended runs: run failed with " + rc, false);
+                }
+            }
+
+            Path fullInput = dir.resolve("full.in");
+            Path fullOutput = dir.resolve("full.out");
+            Files.write(fullInput, input);
+            RC rc = run(writeConfig(dir.resolve("full.cfg"), fullInput, fullOutput,
+                    "config/1", "timofeeva.executor.Executor,timofeeva.executor.Executor",
+                    "config/1/executor1.cfg,config/1/executor2.cfg", null));
+
+            return check(parts.length + " appended runs equal one full run", rc == RC.CODE_SUCCESS
+                    && Arrays.equals(Files.readAllBytes(fullOutput), Files.readAllBytes(incrementalOutput)));
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static boolean checkForeignComponentRejected() throws IOException {
+        Path dir = Files.createTempDirectory("incremental-test");
+        try {
+            Path input = dir.resolve("input");
+            Files.write(input, new byte[]{1, 2, 3});
+            Path config = writeConfig(dir.resolve("foreign.cfg"), input, dir.resolve("output"),
+                    "config/4", "timofeeva.executor.Executor,mekhails.executor.Reverser,timofeeva.executor.Executor",
+                    "config/4/executor1.cfg,config/4/reverserConfig1.txt,config/4/executor2.cfg", dir.resolve("state"));
+
+            return check("foreign component rejected in incremental mode", run(config) == RC.CODE_CONFIG_SEMANTIC_ERROR
+                    && !Files.exists(dir.resolve("state")));
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static Path writeConfig(Path path, Path input, Path output, String componentDir, String executors,
+                                    String executorConfigs, Path state) throws IOException {
+        String config = "INPUT_FILE_PATH=" + input + "\r\n"
+                + "OUTPUT_FILE_PATH=" + output + "\r\n"
+                + "EXECUTOR_NAME=" + executors + "\r\n"
+                + "READER_NAME=timofeeva.reader.Reader\r\n"
+                + "WRITER_NAME=timofeeva.writer.Writer\r\n"
+                + "READER_CONFIG_PATH=" + componentDir + "/reader.cfg\r\n"
+                + "WRITER_CONFIG_PATH=" + componentDir + "/writer.cfg\r\n"
+                + "EXECUTOR_CONFIG_PATH=" + executorConfigs;
+        if (state != null) {
+            config += "\r\nINCREMENTAL_STATE_PATH=" + state;
+        }
+        Files.writeString(path, config);
+
+        return path;
+    }
+
+    private static RC run(Path config) {
+        Manager manager = new Manager();
+        manager.setLogger(logger);
+        RC rc = manager.setConfig(config.toString());
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        return manager.start();
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static boolean check(String name, boolean ok) {
+        System.out.println((ok ? "ok   " : "FAIL ") + name);
+        return ok;
+    }
+}
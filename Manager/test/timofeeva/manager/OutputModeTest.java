@@ -0,0 +1,84 @@
+package timofeeva.manager;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Проверка потоков OutputMode: данные, записанные всеми тремя вариантами write, доходят до файла по порядку.
+ * Запускается из каталога Manager, при ошибке завершается с кодом 1.
+ */
+public class OutputModeTest {
+    public static void main(String[] args) throws IOException {
+        boolean failed = false;
+        for (OutputMode mode : OutputMode.values()) {
+            failed |= !checkMixedWrites(mode, false);
+            failed |= !checkMixedWrites(mode, true);
+        }
+        failed |= !checkDirectChannelBlocked();
+        System.exit(failed ? 1 : 0);
+    }
+
+    // 10000 байт через write(byte[], int, int), 5000 через write(byte[]) и 3 через write(int)
+    private static boolean checkMixedWrites(OutputMode mode, boolean append) throws IOException {
+        Path dir = Files.createTempDirectory("output-mode-test");
+        Path path = dir.resolve("output");
+        try {
+            Random random = new Random(mode.ordinal());
+            // дописывать DIRECT может только к файлу, выровненному на блок
+            byte[] existing = new byte[append ? (int) Files.getFileStore(dir).getBlockSize() : 0];
+            random.nextBytes(existing);
+            Files.write(path, existing);
+
+            byte[] first = new byte[10000];
+            byte[] second = new byte[5000];
+            random.nextBytes(first);
+            random.nextBytes(second);
+            try (FileOutputStream output = mode.open(path.toString(), append, 0, null)) {
+                output.write(first, 0, first.length);
+                output.write(second);
+                output.write(1);
+                output.write(2);
+                output.write(3);
+            }
+
+            byte[] expected = new byte[existing.length + first.length + second.length + 3];
+            System.arraycopy(existing, 0, expected, 0, existing.length);
+            System.arraycopy(first, 0, expected, existing.length, first.length);
+            System.arraycopy(second, 0, expected, existing.length + first.length, second.length);
+            expected[expected.length - 3] = 1;
+            expected[expected.length - 2] = 2;
+            expected[expected.length - 1] = 3;
+            return check(mode + (append ? " append" : "") + " mixed writes", Arrays.equals(expected, Files.readAllBytes(path)));
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static boolean checkDirectChannelBlocked() throws IOException {
+        Path path = Files.createTempFile("output-mode-test", ".out");
+        try (FileOutputStream output = OutputMode.DIRECT.open(path.toString(), false, 0, null)) {
+            if (!output.getClass().getSimpleName().startsWith("Direct")) {
+                System.out.println("skip: direct output is not supported here");
+                return true;
+            }
+            try {
+                output.getChannel();
+                return check("DIRECT getChannel blocked", false);
+            } catch (UnsupportedOperationException e) {
+                return check("DIRECT getChannel blocked", true);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static boolean check(String name, boolean ok) {
+        System.out.println((ok ? "ok   " : "FAIL ") + name);
+        return ok;
+    }
+}
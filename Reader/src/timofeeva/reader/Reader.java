@@ -1,6 +1,15 @@
 package timofeeva.reader;
 
 import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.Batch;
+import timofeeva.pipeline.CancellationToken;
+import timofeeva.pipeline.ChunkLog;
+import timofeeva.pipeline.CopyAllocations;
+import timofeeva.pipeline.ChunkReadEvent;
+import timofeeva.pipeline.Frame;
+import timofeeva.pipeline.IBatchMediator;
+import timofeeva.pipeline.IResolvedStep;
+import timofeeva.pipeline.MediatorConversionEvent;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -14,8 +23,9 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
-public class Reader implements IReader {
+public class Reader implements IReader, IResolvedStep {
     private static final String BUFF_SIZE_PARAM = "BUFFER_SIZE";
+    private static final int READ_ERROR = -2;// readBytes при ошибке, -1 - конец файла
     private final Map<String, String> params = new HashMap<>();
     private final BaseGrammar readerGrammar = new BaseGrammar(new String[]{BUFF_SIZE_PARAM}) {
         @Override
@@ -23,32 +33,71 @@ public class Reader implements IReader {
             return super.delimiter();
         }
     };
-    private final IMediator mediatorByte = new IMediator() {
+    private final IMediator mediatorByte = new IBatchMediator() {
+        @Override
+        public Batch getBatch() {
+            if (outputBuffer != null) {
+                // кадр над буфером без копирования, буфер не меняется до возврата из consumer.execute()
+                return Batch.of(new Frame(outputBuffer, 0, bytesInBuffer, chunkIndex));
+            }
+            return Batch.END_OF_STREAM;
+        }
+
         @Override
         public Object getData() {
             if (outputBuffer != null) {
-                return outputBuffer.clone();
+                CopyAllocations.record(bytesInBuffer);
+                return Arrays.copyOf(outputBuffer, bytesInBuffer);
             }
             return null;
         }
     };
-    private final IMediator mediatorShort = new IMediator() {
+    private final IMediator mediatorShort = new IBatchMediator() {
+        @Override
+        public Batch getBatch() {
+            Object shorts = getData();
+            if (shorts != null) {
+                // дополнение нечетного хвоста - не данные, consumer отбросит его при обратном переводе в байты
+                return Batch.of(new Frame(shorts, 0, ((short[]) shorts).length, chunkIndex, bytesInBuffer % 2));
+            }
+            return Batch.END_OF_STREAM;
+        }
+
         @Override
         public Object getData() {
             if (outputBuffer != null) {
-                short[] shorts = new short[outputBuffer.length / 2];
-                ByteBuffer.wrap(outputBuffer).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(shorts);
+                MediatorConversionEvent event = new MediatorConversionEvent();
+                event.begin();
+                // нечетный последний байт дополняем нулем
+                short[] shorts = new short[(bytesInBuffer + 1) / 2];
+                ByteBuffer.wrap(Arrays.copyOf(outputBuffer, shorts.length * 2)).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(shorts);
+                // массив shorts и промежуточная копия байтов
+                CopyAllocations.record(shorts.length * 2L * Short.BYTES);
+                event.finish(Reader.class.getSimpleName(), TYPE.BYTE, TYPE.SHORT, bytesInBuffer, shorts.length);
                 return shorts;
             }
             return null;
         }
     };
-    private final IMediator mediatorChar = new IMediator() {
+    private final IMediator mediatorChar = new IBatchMediator() {
+        @Override
+        public Batch getBatch() {
+            Object chars = getData();
+            if (chars != null) {
+                return Batch.of(new Frame(chars, 0, ((char[]) chars).length, chunkIndex));
+            }
+            return Batch.END_OF_STREAM;
+        }
+
         @Override
         public Object getData() {
             if (outputBuffer != null) {
-                String text = new String(outputBuffer, StandardCharsets.UTF_8);
-                return text.toCharArray();
+                MediatorConversionEvent event = new MediatorConversionEvent();
+                event.begin();
+                char[] chars = new String(outputBuffer, 0, bytesInBuffer, StandardCharsets.UTF_8).toCharArray();
+                CopyAllocations.record(chars.length * (long) Character.BYTES);
+                event.finish(Reader.class.getSimpleName(), TYPE.BYTE, TYPE.CHAR, bytesInBuffer, chars.length);
+                return chars;
             }
             return null;
         }
@@ -58,7 +107,10 @@ public class Reader implements IReader {
     private FileInputStream inputStream;
     private Integer bufferSize;
     private byte[] outputBuffer;
+    private int bytesInBuffer;// кол-во считанных в буффер байт
     private boolean finishing = false;
+    private long chunkIndex;// номер считываемой порции
+    private long offset;// кол-во считанных байт
 
     public Reader(Logger logger) {
         this.logger = logger;
@@ -78,28 +130,37 @@ public class Reader implements IReader {
         }
 
         outputBuffer = new byte[bufferSize];
-        int readBytesCount;
 
+        CancellationToken token = CancellationToken.current();
         while (true) {
-            readBytesCount = readBytes(outputBuffer, bufferSize);
-            if (readBytesCount <= 0) {
+            // конвейер остановлен - прекращаем чтение, сигнал о завершении не передаем
+            if (token.isCancelled()) {
+                return CancellationToken.STOPPED;
+            }
+            // длина порции передается явно, поэтому буффер между чтениями не зануляется
+            bytesInBuffer = readBytes(outputBuffer, bufferSize);
+            if (bytesInBuffer == READ_ERROR) {
+                // ошибку чтения нельзя принимать за конец файла: менеджер сохранил бы смещение за непрочитанными данными
+                return RC.CODE_FAILED_TO_READ;
+            }
+            if (bytesInBuffer <= 0) {
                 // считывание завершилось
                 break;
             }
+            chunkIndex++;
+            offset += bytesInBuffer;
 
+            // код ошибки передаем менеджеру как есть, чтобы ошибка записи не выглядела ошибкой связывания
             RC rc = consumer.execute();
             if (rc != RC.CODE_SUCCESS) {
-                return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+                return rc;
             }
-
-            Arrays.fill(outputBuffer, (byte) 0);
         }
 
-        // передаем сигнал о завершении
+        // передаем сигнал о завершении, на нем writer'ы выводят остаток буфера
         outputBuffer = null;
-        consumer.execute();
 
-        return RC.CODE_SUCCESS;
+        return consumer.execute();
     }
 
     @Override
@@ -113,6 +174,11 @@ public class Reader implements IReader {
         return RC.CODE_SUCCESS;
     }
 
+    @Override
+    public RC setProducer(IProducer iProducer, TYPE type) {
+        return setProducer(iProducer);
+    }
+
     @Override
     public RC setConfig(String s) {
         RC rc = getParams(s);
@@ -124,6 +190,29 @@ public class Reader implements IReader {
         return rc;
     }
 
+    @Override
+    public Map<String, String> getResolvedConfig() {
+        return new HashMap<>(params);
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public TYPE getProducerType() {
+        return null;
+    }
+
+    @Override
+    public RC setResolvedConfig(Map<String, String> resolvedParams) {
+        params.clear();
+        params.putAll(resolvedParams);
+
+        return checkParams();
+    }
+
     @Override
     public TYPE[] getOutputTypes() {
         return new TYPE[] {TYPE.BYTE, TYPE.SHORT};
@@ -177,12 +266,15 @@ public class Reader implements IReader {
 
     private int readBytes(byte[] buffer, int size) {
         int bytesReadCount;
+        ChunkReadEvent event = new ChunkReadEvent();
+        event.begin();
         try {
             bytesReadCount = inputStream.read(buffer, 0, size);
         } catch (Exception e) {
-            logWarn("Error while file reading");
-            return -1;
+            ChunkLog.warn(logger, "Error while file reading", Reader.class.getSimpleName(), chunkIndex, offset);
+            return READ_ERROR;
         }
+        event.finish(Reader.class.getSimpleName(), chunkIndex + 1, offset, size, bytesReadCount);
 
         return bytesReadCount;
     }
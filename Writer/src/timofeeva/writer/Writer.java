@@ -1,18 +1,27 @@
 package timofeeva.writer;
 
 import ru.spbstu.pipeline.*;
+import timofeeva.pipeline.Batch;
+import timofeeva.pipeline.CancellationToken;
+import timofeeva.pipeline.ChunkLog;
+import timofeeva.pipeline.CopyAllocations;
+import timofeeva.pipeline.Frame;
+import timofeeva.pipeline.IBatchMediator;
+import timofeeva.pipeline.IResolvedStep;
+import timofeeva.pipeline.MediatorConversionEvent;
+import timofeeva.pipeline.Mediators;
+import timofeeva.pipeline.WriterFlushEvent;
 
 import java.io.BufferedReader;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
-public class Writer implements IWriter {
+public class Writer implements IWriter, IResolvedStep {
     private static final String BUFF_SIZE_PARAM = "BUFFER_SIZE";
     private static final TYPE[] supportedTypes = new TYPE[]{TYPE.BYTE, TYPE.SHORT, TYPE.CHAR};
     private final Map<String, String> params = new HashMap<>();
@@ -28,8 +37,10 @@ public class Writer implements IWriter {
     private Integer bufferSize;
     private byte[] buffer;
     private int bytesInBuffer;// кол-во занятых байт в буффере
-    private IMediator producerMediator;
+    private IBatchMediator producerMediator;
     private TYPE producerMediatorType;
+    private long chunkIndex;// номер полученной порции
+    private long offset;// кол-во записанных байт
 
     public Writer(Logger logger) {
         this.logger = logger;
@@ -53,38 +64,65 @@ public class Writer implements IWriter {
             return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
         }
 
-        Object data = producerMediator.getData();
-        if (data == null) {
-            writeDataFromBufferAndClear();
-            return RC.CODE_SUCCESS;
+        if (CancellationToken.current().isCancelled()) {
+            return CancellationToken.STOPPED;
         }
-
-        byte[] bytesInput = convertInputDataTyBytes(data);
-        if (bytesInput == null) {
-            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+        chunkIndex++;
+        Batch batch = producerMediator.getBatch();
+        if (batch.isEndOfStream()) {
+            return writeDataFromBufferAndClear();
         }
 
-        long delta = bufferSize - bytesInBuffer;
-        // если места в буффере хваает
-        if (delta >= bytesInput.length) {
-            fillBuffer(bytesInBuffer, bytesInput);
-            return RC.CODE_SUCCESS;
+        for (Frame frame : batch.getFrames()) {
+            byte[] bytesInput;
+            int from;
+            int length;
+            if (producerMediatorType == TYPE.BYTE) {
+                // байты берем прямо из кадра, без копирования
+                bytesInput = (byte[]) frame.getData();
+                from = frame.getOffset();
+                length = frame.getLength();
+            } else {
+                MediatorConversionEvent event = new MediatorConversionEvent();
+                event.begin();
+                bytesInput = convertFrameToBytes(frame);
+                if (bytesInput == null) {
+                    return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+                }
+                CopyAllocations.record(bytesInput.length);
+                event.finish(Writer.class.getSimpleName(), producerMediatorType, TYPE.BYTE, frame.getLength(), bytesInput.length);
+                from = 0;
+                length = bytesInput.length;
+            }
+            RC rc = accept(bytesInput, from, length);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
         }
 
-        // если места в буффере не хватает, выводим то что есть в буффере + то что в него вошло бы
-        byte[] bufferPlusNewData = Arrays.copyOf(buffer, bytesInBuffer + bytesInput.length);
-        System.arraycopy(bytesInput, 0, bufferPlusNewData, bytesInBuffer, bytesInput.length);
-        int offset = bufferPlusNewData.length % bufferSize; // кол-во последних байт, которые нужно записать в буффер
-//        if (offset == 0) {
-//            offset = bufferSize;
-//        }
+        return RC.CODE_SUCCESS;
+    }
 
-//        byte[] bytesToWrite = Arrays.copyOf(bufferPlusNewData, bufferPlusNewData.length - offset);
-        writeData(bufferPlusNewData, bufferPlusNewData.length - offset);
+    private RC accept(byte[] data, int from, int length) {
+        // если места в буффере хватает
+        if (bufferSize - bytesInBuffer >= length) {
+            System.arraycopy(data, from, buffer, bytesInBuffer, length);
+            bytesInBuffer += length;
+            return RC.CODE_SUCCESS;
+        }
 
-        buffer = new byte[bufferSize];
-        bytesInBuffer = offset;
-        System.arraycopy(bufferPlusNewData, bufferPlusNewData.length - offset, buffer, 0, offset);
+        // если места в буффере не хватает, выводим буффер и новые данные целыми буфферами, остаток - в буффер
+        int remainder = (bytesInBuffer + length) % bufferSize; // кол-во последних байт, которые нужно записать в буффер
+        RC rc = writeData(buffer, 0, bytesInBuffer);
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+        rc = writeData(data, from, length - remainder);
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+        System.arraycopy(data, from + length - remainder, buffer, 0, remainder);
+        bytesInBuffer = remainder;
 
         return RC.CODE_SUCCESS;
     }
@@ -104,9 +142,7 @@ public class Writer implements IWriter {
         for (TYPE inputType : supportedTypes) {
             for (TYPE outputType : producer.getOutputTypes()) {
                 if (inputType == outputType) {
-                    producerMediatorType = outputType;
-                    producerMediator = producer.getMediator(outputType);
-                    return RC.CODE_SUCCESS;
+                    return setProducer(iProducer, outputType);
                 }
             }
         }
@@ -114,9 +150,46 @@ public class Writer implements IWriter {
         return RC.CODE_SUCCESS;
     }
 
+    @Override
+    public RC setProducer(IProducer iProducer, TYPE type) {
+        producer = iProducer;
+        producerMediatorType = type;
+        producerMediator = Mediators.asBatchMediator(producer.getMediator(type), type);
+
+        return RC.CODE_SUCCESS;
+    }
+
     @Override
     public RC setConfig(String s) {
-        return parseArgs(s);
+        RC rc = parseArgs(s);
+        if (rc != RC.CODE_SUCCESS) {
+            return rc;
+        }
+
+        return applyArgs();
+    }
+
+    @Override
+    public Map<String, String> getResolvedConfig() {
+        return new HashMap<>(params);
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize == null ? 0 : bufferSize;
+    }
+
+    @Override
+    public TYPE getProducerType() {
+        return producerMediatorType;
+    }
+
+    @Override
+    public RC setResolvedConfig(Map<String, String> resolvedParams) {
+        params.clear();
+        params.putAll(resolvedParams);
+
+        return applyArgs();
     }
 
     private RC parseArgs(String filePath) {
@@ -133,6 +206,10 @@ public class Writer implements IWriter {
             return RC.CODE_CONFIG_GRAMMAR_ERROR;
         }
 
+        return RC.CODE_SUCCESS;
+    }
+
+    private RC applyArgs() {
         if (params.containsKey(BUFF_SIZE_PARAM)) {
             String s = params.get(BUFF_SIZE_PARAM);
             try {
@@ -147,55 +224,61 @@ public class Writer implements IWriter {
         return RC.CODE_CONFIG_GRAMMAR_ERROR;
     }
 
-    private void writeDataFromBufferAndClear() {
+    private RC writeDataFromBufferAndClear() {
         if (buffer != null && bytesInBuffer > 0) {
-            writeData(buffer, bytesInBuffer);
+            RC rc = writeData(buffer, 0, bytesInBuffer);
+            if (rc != RC.CODE_SUCCESS) {
+                return rc;
+            }
             bytesInBuffer = 0;
-            buffer = new byte[bufferSize];
         }
+
+        return RC.CODE_SUCCESS;
     }
 
     /**
      * @param data - данные для вывода в outputStream
+     * @param from - индекс первого байта
      * @param len  - кол-во байт для вывода
+     * @return CODE_FAILED_TO_WRITE, если запись или сброс на диск (режим FSYNC) не удались
      */
-    private void writeData(byte[] data, int len) {
+    private RC writeData(byte[] data, int from, int len) {
+        if (len == 0) {
+            return RC.CODE_SUCCESS;
+        }
+        WriterFlushEvent event = new WriterFlushEvent();
+        event.begin();
         try {
-            for (int i = 0; i < len; i++) {
-                byte b = data[i];
-                if (b != (byte) 0) {
-                    outputStream.write(b);
-                }
-            }
+            outputStream.write(data, from, len);
+            event.finish(Writer.class.getSimpleName(), chunkIndex, offset, len);
+            offset += len;
         } catch (IOException e) {
-            logWarn("Error while writing data to file");
+            ChunkLog.warn(logger, "Error while writing data to file", Writer.class.getSimpleName(), chunkIndex, offset);
+            return RC.CODE_FAILED_TO_WRITE;
         }
-    }
 
-    private void fillBuffer(int offset, byte[] data) {
-        System.arraycopy(data, 0, buffer, offset, data.length);
-        bytesInBuffer = offset + data.length;
+        return RC.CODE_SUCCESS;
     }
 
-    private byte[] convertInputDataTyBytes(Object data) {
+    private byte[] convertFrameToBytes(Frame frame) {
         try {
             switch (producerMediatorType) {
-                case BYTE:
-                    return (byte[]) data;
                 case SHORT:
-                    short[] shortData = (short[]) data;
-                    byte[] byteData = new byte[shortData.length * 2];
-                    for (int i = 0, j = 0; i < byteData.length; i += 2, j++) {
+                    short[] shortData = (short[]) frame.getData();
+                    byte[] byteData = new byte[frame.getLength() * 2 - frame.getPaddingBytes()];
+                    for (int i = 0, j = frame.getOffset(); i < byteData.length; i += 2, j++) {
                         short shortValue = shortData[j];
                         byteData[i] = (byte) (shortValue & 0xff);
-                        byteData[i + 1] = (byte) ((shortValue >> 8) & 0xff);
+                        if (i + 1 < byteData.length) {
+                            byteData[i + 1] = (byte) ((shortValue >> 8) & 0xff);
+                        }
                     }
                     return byteData;
                 case CHAR:
-                    return new String((char[]) data).getBytes(StandardCharsets.UTF_8);
+                    return new String((char[]) frame.getData(), frame.getOffset(), frame.getLength()).getBytes(StandardCharsets.UTF_8);
             }
         } catch (Throwable t) {
-            logWarn("Error while converting data in Writer");
+            ChunkLog.warn(logger, "Error while converting data in Writer", Writer.class.getSimpleName(), chunkIndex, offset);
         }
 
         return null;
@@ -206,4 +289,5 @@ public class Writer implements IWriter {
             logger.warning(message);
         }
     }
+
 }